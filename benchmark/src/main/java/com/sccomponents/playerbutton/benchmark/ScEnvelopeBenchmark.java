@@ -0,0 +1,114 @@
+package com.sccomponents.playerbutton.benchmark;
+
+import com.sccomponents.playerbutton.core.ScEnvelopeBuilder;
+import com.sccomponents.playerbutton.core.ScWaveReducer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Envelope computation from the decoded PCM and its reduction to the view columns
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScEnvelopeBenchmark {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int ENVELOPE_SIZE = 256;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int CHUNK_FRAMES = 1024;
+
+
+    // ***************************************************************************************
+    // Parameters
+
+    @Param({"1", "10", "60"})
+    public int seconds;
+
+    @Param({"96", "1080"})
+    public int width;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private ShortBuffer[] mChunks = null;
+    private long mDuration = 0;
+    private byte[] mEnvelope = null;
+    private float[] mPoints = null;
+    private int mColumns = 1;
+
+
+    // ***************************************************************************************
+    // Setup
+
+    @Setup
+    public void setup() {
+        // Split a random PCM in chunks as the codec output
+        Random random = new Random(42);
+        int frames = this.seconds * ScEnvelopeBenchmark.SAMPLE_RATE;
+        int count = (frames + ScEnvelopeBenchmark.CHUNK_FRAMES - 1) /
+                ScEnvelopeBenchmark.CHUNK_FRAMES;
+        this.mChunks = new ShortBuffer[count];
+
+        for (int index = 0; index < count; index++) {
+            short[] samples = new short[
+                    ScEnvelopeBenchmark.CHUNK_FRAMES * ScEnvelopeBenchmark.CHANNELS];
+            for (int sample = 0; sample < samples.length; sample++)
+                samples[sample] = (short) random.nextInt();
+            this.mChunks[index] = ShortBuffer.wrap(samples);
+        }
+        this.mDuration = this.seconds * 1000000L;
+
+        // Reduction holders, bars with a 2 pixel stroke
+        this.mColumns = Math.max(1, this.width / 4);
+        this.mPoints = new float[this.mColumns * 4];
+        this.mEnvelope = this.buildEnvelope();
+    }
+
+
+    // ***************************************************************************************
+    // Benchmarks
+
+    @Benchmark
+    public byte[] buildEnvelope() {
+        ScEnvelopeBuilder builder =
+                new ScEnvelopeBuilder(ScEnvelopeBenchmark.ENVELOPE_SIZE, this.mDuration);
+        for (int index = 0; index < this.mChunks.length; index++) {
+            long start = (long) index * ScEnvelopeBenchmark.CHUNK_FRAMES * 1000000L /
+                    ScEnvelopeBenchmark.SAMPLE_RATE;
+            builder.add(this.mChunks[index], start,
+                    ScEnvelopeBenchmark.SAMPLE_RATE, ScEnvelopeBenchmark.CHANNELS);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public int reduceEnvelope() {
+        return ScWaveReducer.reduceEnvelope(
+                this.mEnvelope, this.mColumns, 4, 0.0f, 50.0f, 50.0f, this.mPoints);
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.sccomponents.playerbutton.benchmark;
+
+import com.sccomponents.playerbutton.core.ScTimeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time label formatting, called on every frame while playing
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScTimeFormatBenchmark {
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private final char[] mLabel = new char[ScTimeFormat.LENGTH];
+    private int mSeconds = 0;
+
+
+    // ***************************************************************************************
+    // Benchmarks
+
+    @Benchmark
+    public char[] format() {
+        // Walk all the times up to two hours
+        this.mSeconds = (this.mSeconds + 1) % (2 * 60 * 60);
+        ScTimeFormat.format(this.mSeconds, this.mLabel);
+        return this.mLabel;
+    }
+
+    @Benchmark
+    public char[] formatUnknown() {
+        ScTimeFormat.format(ScTimeFormat.UNKNOWN, this.mLabel);
+        return this.mLabel;
+    }
+
+}
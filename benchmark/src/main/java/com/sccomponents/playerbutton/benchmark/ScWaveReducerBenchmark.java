@@ -0,0 +1,82 @@
+package com.sccomponents.playerbutton.benchmark;
+
+import com.sccomponents.playerbutton.core.ScWaveReducer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Wave form reduction of a visualizer capture to the view columns
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScWaveReducerBenchmark {
+
+    // ***************************************************************************************
+    // Parameters
+
+    @Param({"128", "512", "1024"})
+    public int captureSize;
+
+    @Param({"96", "360", "1080"})
+    public int width;
+
+    @Param({"0", "1"})
+    public int style;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private byte[] mData = null;
+    private float[] mPoints = null;
+    private int mStep = 1;
+    private int mColumns = 1;
+
+
+    // ***************************************************************************************
+    // Setup
+
+    @Setup
+    public void setup() {
+        // A random unsigned 8 bit wave form
+        Random random = new Random(42);
+        this.mData = new byte[this.captureSize];
+        random.nextBytes(this.mData);
+
+        // The bars are spaced as drawn with a 2 pixel stroke
+        this.mStep = this.style == ScWaveReducer.STYLE_PATH ? 1 : 4;
+        this.mColumns = Math.max(1, this.width / this.mStep);
+        this.mPoints = new float[ScWaveReducer.getWaveCapacity(this.mColumns)];
+    }
+
+
+    // ***************************************************************************************
+    // Benchmarks
+
+    @Benchmark
+    public int reduceWave() {
+        return ScWaveReducer.reduceWave(
+                this.mData, this.mColumns, this.mStep, this.style,
+                0.0f, 0.0f, this.width / 2.0f, this.mPoints);
+    }
+
+}
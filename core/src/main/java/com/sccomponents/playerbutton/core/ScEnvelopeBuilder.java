@@ -0,0 +1,83 @@
+package com.sccomponents.playerbutton.core;
+
+import java.nio.ShortBuffer;
+
+
+/**
+ * Compute the amplitude envelope of a media from its decoded PCM chunks.
+ * Every chunk is reduced to the peak of the envelope bucket containing its frames
+ * and at the end the peaks are normalized to unsigned 8 bit.
+ */
+
+public final class ScEnvelopeBuilder {
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private final int[] mPeaks;
+    private final long mDuration;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    /**
+     * @param size     the envelope size
+     * @param duration the media duration in microseconds, must be positive
+     */
+    public ScEnvelopeBuilder(int size, long duration) {
+        this.mPeaks = new int[size];
+        this.mDuration = duration;
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Add a decoded chunk.
+     * The buffer position is not changed.
+     *
+     * @param samples    the 16 bit interleaved samples
+     * @param start      the chunk presentation time in microseconds
+     * @param sampleRate the sample rate
+     * @param channels   the channels count
+     */
+    public void add(ShortBuffer samples, long start, int sampleRate, int channels) {
+        int offset = samples.position();
+        int frames = samples.remaining() / channels;
+
+        for (int frame = 0; frame < frames; frame++) {
+            // Find the bucket
+            long time = start + frame * 1000000L / sampleRate;
+            int bucket = (int) (time * this.mPeaks.length / this.mDuration);
+            if (bucket < 0) bucket = 0;
+            if (bucket >= this.mPeaks.length) bucket = this.mPeaks.length - 1;
+
+            // Find the peak
+            for (int channel = 0; channel < channels; channel++) {
+                int value = Math.abs((int) samples.get(offset + frame * channels + channel));
+                if (value > this.mPeaks[bucket]) this.mPeaks[bucket] = value;
+            }
+        }
+    }
+
+    /**
+     * Normalize the peaks
+     *
+     * @return the unsigned 8 bit envelope
+     */
+    public byte[] build() {
+        // Find the max
+        int max = 1;
+        for (int peak : this.mPeaks)
+            if (peak > max) max = peak;
+
+        // Normalize
+        byte[] envelope = new byte[this.mPeaks.length];
+        for (int index = 0; index < this.mPeaks.length; index++)
+            envelope[index] = (byte) (this.mPeaks[index] * 255 / max);
+        return envelope;
+    }
+
+}
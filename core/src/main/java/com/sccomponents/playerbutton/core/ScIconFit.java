@@ -0,0 +1,53 @@
+package com.sccomponents.playerbutton.core;
+
+
+/**
+ * Fit a square icon inside an area keeping it centered
+ */
+
+public final class ScIconFit {
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScIconFit() {
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Find the largest square centered inside the area
+     *
+     * @param left   the area left
+     * @param top    the area top
+     * @param right  the area right
+     * @param bottom the area bottom
+     * @param bounds the result holder: left, top, right and bottom
+     */
+    public static void fit(int left, int top, int right, int bottom, int[] bounds) {
+        // Holders
+        int width = right - left;
+        int height = bottom - top;
+        int centerX = (left + right) >> 1;
+        int centerY = (top + bottom) >> 1;
+
+        if (width > height) {
+            // Landscape, reduce the width
+            left = centerX - height / 2;
+            right = centerX + height / 2;
+
+        } else {
+            // Portrait, reduce the height
+            top = centerY - width / 2;
+            bottom = centerY + width / 2;
+        }
+
+        bounds[0] = left;
+        bounds[1] = top;
+        bounds[2] = right;
+        bounds[3] = bottom;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.sccomponents.playerbutton.core;
+
+
+/**
+ * Format a time inside a reused chars buffer.
+ * No any object will be created so can be called while drawing.
+ */
+
+public final class ScTimeFormat {
+
+    // ***************************************************************************************
+    // Constants
+
+    public static final int UNKNOWN = -1;
+    public static final int LENGTH = 5;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScTimeFormat() {
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Format the seconds inside the label buffer in the below format:
+     * - If have hours: HH:MM
+     * - If NO have hours: MM:SS
+     * - If the time is unknown: --:--
+     *
+     * @param seconds the time in seconds or UNKNOWN
+     * @param label   the buffer, at least LENGTH chars
+     * @return the label length
+     */
+    public static int format(int seconds, char[] label) {
+        // Check for unknown time
+        if (seconds < 0) {
+            label[0] = '-';
+            label[1] = '-';
+            label[2] = ':';
+            label[3] = '-';
+            label[4] = '-';
+            return ScTimeFormat.LENGTH;
+        }
+
+        // Get the tokens
+        int minutes = (seconds / 60) % 60;
+        int hours = (seconds / (60 * 60)) % 24;
+
+        // Format
+        int first = hours == 0 ? minutes : hours;
+        int second = hours == 0 ? seconds % 60 : minutes;
+
+        label[0] = (char) ('0' + first / 10);
+        label[1] = (char) ('0' + first % 10);
+        label[2] = ':';
+        label[3] = (char) ('0' + second / 10);
+        label[4] = (char) ('0' + second % 10);
+        return ScTimeFormat.LENGTH;
+    }
+
+}
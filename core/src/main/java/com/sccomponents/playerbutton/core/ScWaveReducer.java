@@ -0,0 +1,156 @@
+package com.sccomponents.playerbutton.core;
+
+
+/**
+ * Reduce the wave form data or the media envelope to the segments to draw.
+ * The data is reduced to one min/max pair for each pixel column and the segments
+ * end points are written inside a caller buffer, so the cost scales with the view
+ * width and not with the capture size.
+ */
+
+public final class ScWaveReducer {
+
+    // ***************************************************************************************
+    // Constants
+
+    public static final int STYLE_PATH = 0;
+    public static final int STYLE_BARS = 1;
+    public static final int STYLE_DOTS = 2;
+    public static final int STYLE_SPECTRUM = 3;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScWaveReducer() {
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Get the points buffer size needed to reduce the wave form
+     *
+     * @param columns the columns count
+     * @return the size in floats
+     */
+    public static int getWaveCapacity(int columns) {
+        // Every column can have two segments (4 floats each)
+        return columns * 8;
+    }
+
+    /**
+     * Reduce the wave form to segments.
+     * The path style link every column with the previous one, the other styles have a
+     * single segment for each column.
+     *
+     * @param data    the unsigned 8 bit samples, not empty
+     * @param columns the columns count
+     * @param step    the columns distance in pixel
+     * @param style   the drawing style
+     * @param left    the left bound
+     * @param top     the top bound
+     * @param height  the height
+     * @param points  the segments end points holder
+     * @return the points count
+     */
+    public static int reduceWave(byte[] data, int columns, int step, int style,
+                                 float left, float top, float height, float[] points) {
+        // Holders
+        float yScale = height / 255.0f;
+        int count = 0;
+        float previous = 0.0f;
+
+        for (int column = 0; column < columns; column++) {
+            // Find the samples range of this column
+            int start = (int) ((long) column * data.length / columns);
+            int end = (int) ((long) (column + 1) * data.length / columns);
+            if (end <= start) end = start + 1;
+
+            // Find the min and max
+            int min = 255;
+            int max = 0;
+            for (int index = start; index < end; index++) {
+                int value = data[index] & 0xff;
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+
+            // Calculate the position
+            float x = left + column * step;
+            float yMin = top + min * yScale;
+            float yMax = top + max * yScale;
+
+            switch (style) {
+                case ScWaveReducer.STYLE_DOTS:
+                case ScWaveReducer.STYLE_BARS:
+                    points[count++] = x;
+                    points[count++] = yMin;
+                    points[count++] = x;
+                    points[count++] = yMax;
+                    break;
+
+                default:
+                    // Link with the previous column
+                    if (column > 0) {
+                        points[count++] = x - step;
+                        points[count++] = previous;
+                        points[count++] = x;
+                        points[count++] = yMin;
+                    }
+
+                    // The column excursion
+                    points[count++] = x;
+                    points[count++] = yMin;
+                    points[count++] = x;
+                    points[count++] = yMax;
+                    previous = yMax;
+                    break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reduce the media envelope to vertical bars centered on the middle line.
+     * Every column is a single segment (4 floats).
+     *
+     * @param envelope the unsigned 8 bit peaks
+     * @param columns  the columns count
+     * @param step     the columns distance in pixel
+     * @param left     the left bound
+     * @param centerY  the middle line
+     * @param half     the max bar half height
+     * @param points   the segments end points holder
+     * @return the points count
+     */
+    public static int reduceEnvelope(byte[] envelope, int columns, int step,
+                                     float left, float centerY, float half, float[] points) {
+        int count = 0;
+        for (int column = 0; column < columns; column++) {
+            // Find the peaks range of this column
+            int start = (int) ((long) column * envelope.length / columns);
+            int end = (int) ((long) (column + 1) * envelope.length / columns);
+            if (end <= start) end = start + 1;
+
+            // Find the max
+            int max = 0;
+            for (int index = start; index < end; index++) {
+                int value = envelope[index] & 0xff;
+                if (value > max) max = value;
+            }
+
+            // Calculate the position, keep at least a dot for the silence
+            float x = left + column * step + step / 2.0f;
+            float height = Math.max(0.5f, max * half / 255.0f);
+
+            points[count++] = x;
+            points[count++] = centerY - height;
+            points[count++] = x;
+            points[count++] = centerY + height;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.sccomponents.playerbutton.core;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Check that the per frame drawing helpers not create any object.
+ * The allocated bytes of the current thread are read before and after many iterations,
+ * the helpers are warmed up before so the class loading is not measured.
+ */
+
+public class ScAllocationTest {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int ITERATIONS = 100000;
+    private static final int WARM_UP = 20000;
+    private static final int COLUMNS = 128;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private com.sun.management.ThreadMXBean mBean = null;
+    private long mThreadId = 0;
+
+    private final char[] mLabel = new char[ScTimeFormat.LENGTH];
+    private final byte[] mData = new byte[1024];
+    private final float[] mPoints = new float[ScWaveReducer.getWaveCapacity(COLUMNS)];
+    private final int[] mBounds = new int[4];
+    private long mSink = 0;
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Do one frame of work with all the helpers
+     *
+     * @param frame the frame index
+     */
+    private void frame(int frame) {
+        // Time label
+        this.mSink += ScTimeFormat.format(frame % 100000, this.mLabel);
+
+        // Wave form and envelope
+        int style = frame % 3;
+        this.mSink += ScWaveReducer.reduceWave(
+                this.mData, COLUMNS, 2, style, 10.0f, 10.0f, 100.0f, this.mPoints);
+        this.mSink += ScWaveReducer.reduceEnvelope(
+                this.mData, COLUMNS, 2, 10.0f, 60.0f, 50.0f, this.mPoints);
+
+        // Icon
+        ScIconFit.fit(0, 0, 100 + frame % 50, 80, this.mBounds);
+        this.mSink += this.mBounds[0];
+    }
+
+    /**
+     * Find the bytes allocated by the current thread while running the frames
+     *
+     * @param count the frames count
+     * @return the allocated bytes
+     */
+    private long measure(int count) {
+        long start = this.mBean.getThreadAllocatedBytes(this.mThreadId);
+        for (int frame = 0; frame < count; frame++)
+            this.frame(frame);
+        return this.mBean.getThreadAllocatedBytes(this.mThreadId) - start;
+    }
+
+
+    // ***************************************************************************************
+    // Tests
+
+    @Before
+    public void setUp() {
+        // The allocation counter is a HotSpot extension
+        Assume.assumeTrue(
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        this.mBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(this.mBean.isThreadAllocatedMemorySupported());
+        this.mBean.setThreadAllocatedMemoryEnabled(true);
+        this.mThreadId = Thread.currentThread().getId();
+
+        // Some samples
+        for (int index = 0; index < this.mData.length; index++)
+            this.mData[index] = (byte) (128 + 127 * Math.sin(index / 16.0));
+    }
+
+    @Test
+    public void framesNotAllocate() {
+        // Warm up and find the cost of reading the counter
+        this.measure(ScAllocationTest.WARM_UP);
+        long overhead = this.measure(0);
+
+        // Measure
+        long allocated = this.measure(ScAllocationTest.ITERATIONS) - overhead;
+        assertEquals("Bytes allocated by " + ScAllocationTest.ITERATIONS + " frames",
+                0, Math.max(0, allocated));
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.sccomponents.playerbutton;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Check that drawing the button not create any object.
+ * The button is drawn on a bitmap canvas some times to load the shared icons and to
+ * rasterize the idle state, then the allocations of the main thread are counted.
+ * The playing states are drawn by the shared renderer as the button does at every frame,
+ * with the wave form fed to a capture before every drawing.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class ScDrawAllocationTest {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+    private static final int LARGE_WIDTH = 1024; // Bigger than the idle cache limit
+    private static final int LARGE_HEIGHT = 512;
+    private static final int FRAMES = 200;
+    private static final int WARM_UP = 10;
+    private static final int CAPTURE_SIZE = 1024;
+    private static final int ENVELOPE_SIZE = 256;
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Create a measured and laid out button
+     *
+     * @param width  the width
+     * @param height the height
+     * @return the button
+     */
+    private static ScPlayerButton createButton(int width, int height) {
+        ScPlayerButton button =
+                new ScPlayerButton(InstrumentationRegistry.getTargetContext());
+        button.measure(
+                View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        button.layout(0, 0, width, height);
+        return button;
+    }
+
+    /**
+     * Create a frame with a recognizable content
+     *
+     * @param size the size in bytes
+     * @return the unsigned 8 bit frame
+     */
+    private static byte[] createFrame(int size) {
+        byte[] frame = new byte[size];
+        for (int index = 0; index < size; index++)
+            frame[index] = (byte) (128 + 100 * Math.sin(index / 8.0));
+        return frame;
+    }
+
+    /**
+     * Count the objects allocated by the main thread while drawing the frames
+     *
+     * @param frame draw one frame
+     * @return the allocations count
+     */
+    private static int countAllocations(final Runnable frame) {
+        final int[] count = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            @SuppressWarnings("deprecation")
+            public void run() {
+                // Warm up
+                for (int index = 0; index < WARM_UP; index++)
+                    frame.run();
+
+                // Count
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int index = 0; index < FRAMES; index++)
+                    frame.run();
+                Debug.stopAllocCounting();
+                count[0] = Debug.getThreadAllocCount();
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Count the objects allocated by the main thread while drawing the button
+     *
+     * @param button the button
+     * @return the allocations count
+     */
+    private static int countAllocations(final ScPlayerButton button) {
+        Bitmap bitmap = Bitmap.createBitmap(
+                button.getWidth(), button.getHeight(), Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        int count = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                button.draw(canvas);
+            }
+        });
+        bitmap.recycle();
+        return count;
+    }
+
+    /**
+     * Count the objects allocated by the main thread while drawing a playing frame with
+     * the time label and the wave form fed to the capture
+     *
+     * @param style the wave style
+     * @return the allocations count
+     */
+    private static int countWaveAllocations(final int style) {
+        // The capture and the spectrum state are created by the button on start
+        boolean fft = style == ScPlayerButton.WAVE_STYLE_SPECTRUM;
+        final ScWaveCapture capture =
+                new ScWaveCapture(createButton(WIDTH, HEIGHT), CAPTURE_SIZE, fft);
+        final ScSpectrumAnalyzer analyzer = fft ? new ScSpectrumAnalyzer() : null;
+        final ScPlayerRenderer.Label label = new ScPlayerRenderer.Label();
+        final byte[] data = createFrame(CAPTURE_SIZE);
+        final Rect area = new Rect();
+        final int[] position = new int[1];
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        int count = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                // The capture thread feed, the drawing take the last frame
+                capture.feed(data);
+                ScPlayerRenderer renderer = ScPlayerRenderer.getInstance();
+                area.set(0, 0, WIDTH, HEIGHT);
+                position[0] += 100;
+                label.set(position[0]);
+                renderer.drawTime(canvas, area, label, Color.WHITE, 30.0f);
+                renderer.drawWave(
+                        canvas, area, capture.acquireFrame(), style, analyzer, Color.WHITE);
+            }
+        });
+        capture.release();
+        bitmap.recycle();
+        return count;
+    }
+
+
+    // ***************************************************************************************
+    // Tests
+
+    @Test
+    public void drawIdleNotAllocate() {
+        // Blit of the shared rasterized idle state
+        assertEquals(0, countAllocations(createButton(WIDTH, HEIGHT)));
+    }
+
+    @Test
+    public void drawLabelAndIconNotAllocate() {
+        // Too big for the idle cache so the label and the icon are drawn every frame
+        assertEquals(0, countAllocations(createButton(LARGE_WIDTH, LARGE_HEIGHT)));
+    }
+
+    @Test
+    public void drawWavePathNotAllocate() {
+        assertEquals(0, countWaveAllocations(ScPlayerButton.WAVE_STYLE_PATH));
+    }
+
+    @Test
+    public void drawWaveBarsNotAllocate() {
+        assertEquals(0, countWaveAllocations(ScPlayerButton.WAVE_STYLE_BARS));
+    }
+
+    @Test
+    public void drawWaveDotsNotAllocate() {
+        assertEquals(0, countWaveAllocations(ScPlayerButton.WAVE_STYLE_DOTS));
+    }
+
+    @Test
+    public void drawWaveSpectrumNotAllocate() {
+        assertEquals(0, countWaveAllocations(ScPlayerButton.WAVE_STYLE_SPECTRUM));
+    }
+
+    @Test
+    public void drawEnvelopeNotAllocate() {
+        final byte[] envelope = createFrame(ENVELOPE_SIZE);
+        final Rect area = new Rect();
+        final float[] progress = new float[1];
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        int count = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                // The played part move at every frame
+                progress[0] = (progress[0] + 0.01f) % 1.0f;
+                area.set(0, 0, WIDTH, HEIGHT);
+                ScPlayerRenderer.getInstance()
+                        .drawEnvelope(canvas, area, envelope, progress[0], Color.WHITE);
+            }
+        });
+        bitmap.recycle();
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void drawPreparingNotAllocate() {
+        final Rect area = new Rect();
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        int count = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                area.set(0, 0, WIDTH, HEIGHT);
+                ScPlayerRenderer.getInstance().drawPreparing(canvas, area, Color.WHITE);
+            }
+        });
+        bitmap.recycle();
+        assertEquals(0, count);
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.sccomponents.playerbutton;
+
+import android.content.Context;
+
+
+/**
+ * A playback engine alternative to the media player.
+ * The engine is prepared asynchronously and notify its state on the main thread.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+interface ScAudioEngine {
+
+    /**
+     * Start to prepare the media
+     *
+     * @param context  the context
+     * @param source   the media path
+     * @param listener the state listener
+     */
+    void prepare(Context context, String source, Listener listener);
+
+    /**
+     * Start to play.
+     * Must be called only when prepared.
+     *
+     * @param position the start position in milliseconds
+     */
+    void start(int position);
+
+    /**
+     * Stop to play and release all the resources.
+     * Abort the preparing if still in progress.
+     */
+    void release();
+
+    /**
+     * Check if playing
+     *
+     * @return true if playing
+     */
+    boolean isPlaying();
+
+    /**
+     * Get the playing position
+     *
+     * @return the position in milliseconds
+     */
+    int getCurrentPosition();
+
+    /**
+     * Get the media duration
+     *
+     * @return the duration in milliseconds or 0 if unknown
+     */
+    int getDuration();
+
+    /**
+     * Move to a new position.
+     * A new request will replace the pending one.
+     *
+     * @param position the position in milliseconds
+     * @param precise  false for a fast move to the nearest sync sample
+     */
+    void seekTo(int position, boolean precise);
+
+    /**
+     * Set the volume
+     *
+     * @param volume the volume (0..1)
+     */
+    void setVolume(float volume);
+
+    /**
+     * Get the audio session used to play
+     *
+     * @return the session id or 0 if not prepared
+     */
+    int getAudioSessionId();
+
+    /**
+     * Check if the engine can compute the wave form of the playing PCM
+     *
+     * @return true if can feed a capture
+     */
+    boolean canFeedWave();
+
+    /**
+     * Feed the capture with the wave form of the playing PCM
+     *
+     * @param capture the capture or null to stop
+     * @return false if the engine cannot compute the wave form
+     */
+    boolean setWaveCapture(ScWaveCapture capture);
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread when the engine state change
+     */
+    interface Listener {
+
+        /**
+         * When the engine is ready to play
+         *
+         * @param engine the engine
+         */
+        void onEnginePrepared(ScAudioEngine engine);
+
+        /**
+         * When the end of the media is reached
+         *
+         * @param engine the engine
+         */
+        void onEngineCompletion(ScAudioEngine engine);
+
+        /**
+         * When the engine fail
+         *
+         * @param engine the engine
+         * @param what   the error type, as the media player errors
+         * @param extra  the error extra code
+         */
+        void onEngineError(ScAudioEngine engine, int what, int extra);
+
+    }
+
+}
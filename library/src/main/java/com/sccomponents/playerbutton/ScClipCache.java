@@ -0,0 +1,428 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cache of the short media decoded to PCM.
+ * The media is decoded one time on a background worker and the samples are kept in a
+ * LRU cache evicted by a bytes budget, so the next plays of the same clip will not
+ * touch the decoder anymore.
+ * The static tracks filled with the clips are created on the worker too and, when the
+ * engines release them, the last ones are kept loaded so a replay not create and not
+ * write again the track.
+ * Only the short media can be decoded, the longer ones are refused to bound the memory.
+ * NOTE that all the public methods must be called from the main thread and that the
+ * decoding is available only from JELLY_BEAN.
+ */
+
+final class ScClipCache {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int MAX_DURATION = 10000; // Milliseconds
+
+    private static final int MAX_BUDGET = 8 * 1024 * 1024; // Bytes
+    private static final int MAX_TRACKS = 4;
+    private static final int KEEP_ALIVE = 5; // Seconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScClipCache mInstance = null;
+
+    private final LruCache<String, Clip> mCache;
+    private final LruCache<String, Track> mTracks;
+    private final HashMap<OnClipListener, String> mPending;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * A decoded clip
+     */
+    static final class Clip {
+
+        final short[] samples;
+        final int sampleRate;
+        final int channels;
+
+        Clip(short[] samples, int sampleRate, int channels) {
+            this.samples = samples;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+        }
+
+        /**
+         * Get the frames count
+         *
+         * @return the frames
+         */
+        int getFrames() {
+            return this.samples.length / this.channels;
+        }
+
+        /**
+         * Get the clip duration
+         *
+         * @return the duration in milliseconds
+         */
+        int getDuration() {
+            return (int) (this.getFrames() * 1000L / this.sampleRate);
+        }
+
+    }
+
+    /**
+     * A static track loaded with a clip
+     */
+    static final class Track {
+
+        final AudioTrack audio;
+        final int sampleRate;
+        final int frames;
+
+        Track(AudioTrack audio, int sampleRate, int frames) {
+            this.audio = audio;
+            this.sampleRate = sampleRate;
+            this.frames = frames;
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScClipCache() {
+        // Find the budget by the available memory
+        int budget = (int) Math.min(
+                ScClipCache.MAX_BUDGET, Runtime.getRuntime().maxMemory() / 16);
+
+        this.mCache = new LruCache<String, Clip>(budget) {
+            @Override
+            protected int sizeOf(String key, Clip value) {
+                return value.samples.length * 2;
+            }
+        };
+        this.mTracks = new LruCache<String, Track>(ScClipCache.MAX_TRACKS) {
+            @Override
+            protected void entryRemoved(
+                    boolean evicted, String key, Track oldValue, Track newValue) {
+                // Release the tracks not kept anymore
+                if (oldValue != newValue)
+                    oldValue.audio.release();
+            }
+        };
+        this.mPending = new HashMap<>();
+        this.mHandler = new Handler(Looper.getMainLooper());
+
+        // The worker thread will die when there is nothing to decode
+        this.mExecutor = new ThreadPoolExecutor(
+                0, 1, ScClipCache.KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(ScPlayerMetrics.track(runnable), "ScClipCache");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the cache
+     */
+    static ScClipCache getInstance() {
+        if (ScClipCache.mInstance == null)
+            ScClipCache.mInstance = new ScClipCache();
+        return ScClipCache.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Decode the whole media.
+     * NOTE that this method is blocking and must be called on the worker.
+     *
+     * @param context the context
+     * @param source  the media path
+     * @return the clip or null if the media cannot be decoded or is too long
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Clip readClip(Context context, String source) {
+        ScPcmDecoder decoder = null;
+        try {
+            // Open the media and check the duration
+            decoder = new ScPcmDecoder(context, source);
+            long duration = decoder.getDuration();
+            if (duration <= 0 || duration > ScClipCache.MAX_DURATION * 1000L)
+                return null;
+
+            // Holders, the size is estimated by the declared format and never can be
+            // more than the max duration at 48 kHz stereo
+            int size = (int) (duration * decoder.getSampleRate() / 1000000L) *
+                    decoder.getChannels();
+            int limit = ScClipCache.MAX_DURATION * 48 * 2;
+            short[] samples = new short[Math.max(size, 1024)];
+            int count = 0;
+
+            // Copy all the chunks
+            ShortBuffer chunk;
+            while ((chunk = decoder.read()) != null) {
+                // Grow if needed
+                int remaining = chunk.remaining();
+                if (count + remaining > samples.length) {
+                    if (count + remaining > limit)
+                        return null;
+                    samples = Arrays.copyOf(
+                            samples, Math.max(count + remaining, samples.length * 2));
+                }
+
+                chunk.get(samples, count, remaining);
+                count += remaining;
+            }
+
+            // Check for empty values
+            if (count == 0)
+                return null;
+
+            // Trim
+            if (count < samples.length)
+                samples = Arrays.copyOf(samples, count);
+            return new Clip(samples, decoder.getSampleRate(), decoder.getChannels());
+
+        } catch (Exception ex) {
+            // Print the error on the stack and return
+            ex.printStackTrace();
+            return null;
+
+        } finally {
+            // Release all
+            if (decoder != null)
+                decoder.release();
+        }
+    }
+
+    /**
+     * Create the static track containing the whole clip.
+     * NOTE that this method is blocking and must be called on the worker.
+     *
+     * @param clip the clip
+     * @return the track or null if cannot be created
+     */
+    @SuppressWarnings("deprecation")
+    private static Track createTrack(Clip clip) {
+        // Check the channels
+        int config;
+        if (clip.channels == 1)
+            config = AudioFormat.CHANNEL_OUT_MONO;
+        else if (clip.channels == 2)
+            config = AudioFormat.CHANNEL_OUT_STEREO;
+        else
+            return null;
+
+        try {
+            // Create and fill
+            AudioTrack track = new AudioTrack(
+                    AudioManager.STREAM_MUSIC, clip.sampleRate, config,
+                    AudioFormat.ENCODING_PCM_16BIT, clip.samples.length * 2,
+                    AudioTrack.MODE_STATIC);
+            if (track.getState() == AudioTrack.STATE_UNINITIALIZED) {
+                track.release();
+                return null;
+            }
+
+            track.write(clip.samples, 0, clip.samples.length);
+            return new Track(track, clip.sampleRate, clip.getFrames());
+
+        } catch (Exception ex) {
+            // Print the error on the stack and return
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Get the clip from the cache or decode it.
+     * NOTE that this method is blocking and must be called on the worker.
+     *
+     * @param context the context
+     * @param source  the media path
+     * @return the clip or null if the media cannot be decoded or is too long
+     */
+    private Clip getClip(Context context, String source) {
+        // The requests are executed one by one so the same source is decoded once
+        Clip clip = this.mCache.get(source);
+        if (clip == null) {
+            clip = ScClipCache.readClip(context, source);
+            if (clip != null)
+                this.mCache.put(source, clip);
+        }
+        return clip;
+    }
+
+    /**
+     * Dispatch the track to the waiting listener
+     *
+     * @param source   the media path
+     * @param listener the listener
+     * @param track    the track
+     */
+    private void dispatch(String source, OnClipListener listener, Track track) {
+        // If the request was cancelled keep the track for the next play
+        if (this.mPending.remove(listener) == null) {
+            if (track != null)
+                this.mTracks.put(source, track);
+            return;
+        }
+
+        // Notify
+        listener.onClipReady(source, track);
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Request a static track loaded with the clip.
+     * If a loaded track of the clip is kept the listener will be called immediately
+     * otherwise the clip is decoded and the track created and filled on the worker, and the
+     * listener will be called on the main thread when done.
+     * The track must be given back by calling recycle.
+     *
+     * @param context  the context
+     * @param source   the media path
+     * @param listener the listener
+     */
+    void acquire(Context context, final String source, final OnClipListener listener) {
+        // Check if the platform can decode
+        if (source == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            listener.onClipReady(source, null);
+            return;
+        }
+
+        // Check if already loaded
+        Track kept = this.mTracks.remove(source);
+        if (kept != null) {
+            listener.onClipReady(source, kept);
+            return;
+        }
+
+        // Check if already requested
+        if (this.mPending.containsKey(listener))
+            return;
+
+        // Enqueue the new request
+        this.mPending.put(listener, source);
+
+        final Context appContext = context.getApplicationContext();
+        this.mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Decode and fill
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Clip clip = getClip(appContext, source);
+                final Track track = clip == null ? null : ScClipCache.createTrack(clip);
+
+                // Back to the main thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(source, listener, track);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Remove the listener from the waiting list
+     *
+     * @param listener the listener
+     */
+    void cancel(OnClipListener listener) {
+        this.mPending.remove(listener);
+    }
+
+    /**
+     * Give back a track no more used.
+     * The track is stopped and rewound so the next play of the same clip can use it
+     * without writing again the samples.
+     *
+     * @param source the media path
+     * @param track  the track
+     */
+    void recycle(String source, Track track) {
+        try {
+            // Stop and reload the written data
+            track.audio.stop();
+            track.audio.setPlaybackPositionUpdateListener(null);
+            if (track.audio.reloadStaticData() == AudioTrack.SUCCESS) {
+                this.mTracks.put(source, track);
+                return;
+            }
+
+        } catch (IllegalStateException ex) {
+            // Not initialized
+        }
+        track.audio.release();
+    }
+
+    /**
+     * Release all the kept tracks
+     */
+    static void trim() {
+        if (ScClipCache.mInstance != null)
+            ScClipCache.mInstance.mTracks.evictAll();
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread when the clip track is ready
+     */
+    interface OnClipListener {
+
+        /**
+         * When the clip was decoded and loaded inside the track
+         *
+         * @param source the media path
+         * @param track  the track or null if not available
+         */
+        void onClipReady(String source, Track track);
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.sccomponents.playerbutton;
+
+import android.content.Context;
+import android.media.AudioTrack;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.Looper;
+
+
+/**
+ * Play the short media with a static audio track.
+ * The track is taken from the clip cache already loaded with the decoded media and given
+ * back on release, so once cached a play start without any decoder, player or track
+ * setup latency.
+ * If the media cannot be decoded or is too long the engine will fail with the
+ * MEDIA_ERROR_UNSUPPORTED error.
+ */
+
+final class ScClipEngine implements ScAudioEngine, ScClipCache.OnClipListener,
+        AudioTrack.OnPlaybackPositionUpdateListener {
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static Handler mHandler = null;
+
+    private String mSource = null;
+    private Listener mListener = null;
+    private ScClipCache.Track mClip = null;
+    private AudioTrack mTrack = null;
+    private int mSampleRate = 0;
+    private int mFrames = 0;
+    private float mVolume = 1.0f;
+    private boolean mReleased = false;
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Convert a position to a frame inside the clip
+     *
+     * @param position the position in milliseconds
+     * @return the frame
+     */
+    private int toFrame(int position) {
+        int frame = (int) ((long) position * this.mSampleRate / 1000);
+        return frame < 0 || frame >= this.mFrames ? 0 : frame;
+    }
+
+    /**
+     * Get the main thread handler
+     *
+     * @return the handler
+     */
+    private static Handler getHandler() {
+        if (ScClipEngine.mHandler == null)
+            ScClipEngine.mHandler = new Handler(Looper.getMainLooper());
+        return ScClipEngine.mHandler;
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    @Override
+    public void prepare(Context context, String source, Listener listener) {
+        this.mSource = source;
+        this.mListener = listener;
+        ScClipCache.getInstance().acquire(context, source, this);
+    }
+
+    @Override
+    public void onClipReady(String source, ScClipCache.Track track) {
+        // Check if still needed
+        if (this.mReleased) {
+            if (track != null)
+                ScClipCache.getInstance().recycle(source, track);
+            return;
+        }
+
+        // Check the track
+        if (track == null) {
+            this.mListener.onEngineError(this, MediaPlayer.MEDIA_ERROR_UNSUPPORTED, 0);
+            return;
+        }
+
+        // Settings
+        this.mClip = track;
+        this.mTrack = track.audio;
+        this.mSampleRate = track.sampleRate;
+        this.mFrames = track.frames;
+        this.setVolume(this.mVolume);
+        this.mTrack.setPlaybackPositionUpdateListener(this, ScClipEngine.getHandler());
+
+        // Event
+        this.mListener.onEnginePrepared(this);
+    }
+
+    @Override
+    public void start(int position) {
+        // Move to the position and notify when the last frame is played
+        this.mTrack.setPlaybackHeadPosition(this.toFrame(position));
+        this.mTrack.setNotificationMarkerPosition(this.mFrames);
+        this.mTrack.play();
+    }
+
+    @Override
+    public void release() {
+        // Abort the preparing
+        this.mReleased = true;
+        ScClipCache.getInstance().cancel(this);
+
+        // Give back the track for the next play
+        if (this.mClip != null) {
+            ScClipCache.getInstance().recycle(this.mSource, this.mClip);
+            this.mClip = null;
+            this.mTrack = null;
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return this.mTrack != null &&
+                this.mTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return this.mTrack == null ? 0 :
+                (int) (this.mTrack.getPlaybackHeadPosition() * 1000L / this.mSampleRate);
+    }
+
+    @Override
+    public int getDuration() {
+        return this.mSampleRate == 0 ? 0 : (int) (this.mFrames * 1000L / this.mSampleRate);
+    }
+
+    @Override
+    public void seekTo(int position, boolean precise) {
+        // Always precise, the head can be moved only when not playing
+        boolean playing = this.isPlaying();
+        if (playing)
+            this.mTrack.pause();
+        this.mTrack.setPlaybackHeadPosition(this.toFrame(position));
+        if (playing)
+            this.mTrack.play();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setVolume(float volume) {
+        this.mVolume = volume;
+        if (this.mTrack != null)
+            this.mTrack.setStereoVolume(volume, volume);
+    }
+
+    @Override
+    public int getAudioSessionId() {
+        return this.mTrack == null ? 0 : this.mTrack.getAudioSessionId();
+    }
+
+    @Override
+    public boolean canFeedWave() {
+        return false;
+    }
+
+    @Override
+    public boolean setWaveCapture(ScWaveCapture capture) {
+        return false;
+    }
+
+
+    // ***************************************************************************************
+    // Track listener
+
+    @Override
+    public void onMarkerReached(AudioTrack track) {
+        if (track == this.mTrack)
+            this.mListener.onEngineCompletion(this);
+    }
+
+    @Override
+    public void onPeriodicNotification(AudioTrack track) {
+    }
+
+}
@@ -0,0 +1,365 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Retrieve the media duration on the preparation scheduler by priority.
+ * The persistent metadata index is read first on the worker, so the main thread never
+ * touch the disk, and only the media not indexed are probed and then written inside
+ * the index for the next process start.
+ * The results are stored in a bounded LRU cache keyed by source so the same media
+ * will be probed just one time for all the ScPlayerButton instances.
+ * The failures are not cached, the same source will be probed again after a delay.
+ * NOTE that all the public methods must be called from the main thread.
+ */
+
+final class ScDurationProbe {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int UNKNOWN = -1;
+
+    private static final int CACHE_SIZE = 256;
+    private static final int RETRY_DELAY = 30000; // Milliseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScDurationProbe mInstance = null;
+
+    private final LruCache<String, ScMetadataIndex.Record> mCache;
+    private final LruCache<String, Long> mFailures;
+    private final HashMap<String, List<OnProbeListener>> mPending;
+    private final HashMap<String, ScPrepareScheduler.Task> mTasks;
+    private final Handler mHandler;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScDurationProbe() {
+        this.mCache = new LruCache<>(ScDurationProbe.CACHE_SIZE);
+        this.mFailures = new LruCache<>(ScDurationProbe.CACHE_SIZE);
+        this.mPending = new HashMap<>();
+        this.mTasks = new HashMap<>();
+        this.mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the probe
+     */
+    static ScDurationProbe getInstance() {
+        if (ScDurationProbe.mInstance == null)
+            ScDurationProbe.mInstance = new ScDurationProbe();
+        return ScDurationProbe.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Read the media info from the first audio track format.
+     * This only parse the media container and not decode the media.
+     *
+     * @param context the context
+     * @param source  the media path
+     * @param info    the duration, sample rate and channels count holder
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void readFormat(Context context, String source, int[] info) {
+        MediaExtractor extractor = new MediaExtractor();
+        Closeable dataSource = null;
+        try {
+            // Find the first audio track, the remote media will be read through the cache
+            dataSource = ScHttpCache.setDataSource(extractor, context, source);
+            for (int index = 0; index < extractor.getTrackCount(); index++) {
+                MediaFormat format = extractor.getTrackFormat(index);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    // Fill the holder
+                    if (format.containsKey(MediaFormat.KEY_DURATION))
+                        info[0] = (int) (format.getLong(MediaFormat.KEY_DURATION) / 1000);
+                    info[1] = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    info[2] = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    break;
+                }
+            }
+
+        } catch (Exception ex) {
+            // Print the error on the stack, the retriever will be used
+            ex.printStackTrace();
+
+        } finally {
+            // Release the extractor
+            extractor.release();
+            ScHttpCache.closeDataSource(dataSource);
+        }
+    }
+
+    /**
+     * Read the media info from the persistent index or from the media.
+     * A media not indexed is probed and its info stored inside the index.
+     * This not create any player and not decode the media.
+     * NOTE that this method is blocking and must be called on the worker.
+     *
+     * @param context the context
+     * @param source  the media path
+     * @return the info or null if the duration cannot be read
+     */
+    private static ScMetadataIndex.Record readInfo(Context context, String source) {
+        // Check if already indexed
+        ScMetadataIndex index = ScMetadataIndex.getInstance(context);
+        ScMetadataIndex.Record record = index.find(source);
+        if (record != null && record.duration > 0)
+            return record;
+
+        // Try with the track format
+        int[] info = new int[3];
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            ScDurationProbe.readFormat(context, source, info);
+
+        // Fallback on the retriever
+        if (info[0] <= 0)
+            info[0] = ScDurationProbe.readRetrieverDuration(context, source);
+
+        // Store for the next process start
+        return info[0] > 0 ? index.putMedia(source, info[0], info[1], info[2]) : null;
+    }
+
+    /**
+     * Read the media duration using the metadata retriever.
+     *
+     * @param context the context
+     * @param source  the media path
+     * @return the duration in milliseconds
+     */
+    private static int readRetrieverDuration(Context context, String source) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            // Extract the duration
+            retriever.setDataSource(context, Uri.parse(source));
+            String duration = retriever
+                    .extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration == null ? 0 : Integer.parseInt(duration);
+
+        } catch (Exception ex) {
+            // Print the error on the stack and return
+            ex.printStackTrace();
+            return 0;
+
+        } finally {
+            // Release the retriever
+            retriever.release();
+        }
+    }
+
+    /**
+     * Check if the last probe of the source failed and the retry delay is not elapsed
+     *
+     * @param source the media path
+     * @return true if must not be probed yet
+     */
+    private boolean isFailed(String source) {
+        Long time = this.mFailures.get(source);
+        if (time == null)
+            return false;
+
+        // Check if can retry
+        if (SystemClock.uptimeMillis() - time < ScDurationProbe.RETRY_DELAY)
+            return true;
+        this.mFailures.remove(source);
+        return false;
+    }
+
+    /**
+     * Store the result and dispatch it to all the waiting listeners.
+     * A failure (like a network error or a file not yet written) is not stored and
+     * dispatched as UNKNOWN.
+     *
+     * @param source the media path
+     * @param record the media info or null if failed
+     */
+    private void dispatch(String source, ScMetadataIndex.Record record) {
+        // Store
+        int duration = ScDurationProbe.UNKNOWN;
+        int position = 0;
+        if (record != null) {
+            this.mCache.put(source, record);
+            duration = record.duration;
+            position = record.position;
+        } else {
+            this.mFailures.put(source, SystemClock.uptimeMillis());
+        }
+        this.mTasks.remove(source);
+
+        // Notify
+        List<OnProbeListener> listeners = this.mPending.remove(source);
+        if (listeners != null)
+            for (OnProbeListener listener : listeners)
+                listener.onDurationProbed(source, duration, position);
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Update the last playback position of an already known media
+     *
+     * @param source   the media path
+     * @param position the position in milliseconds
+     */
+    void putPosition(String source, int position) {
+        ScMetadataIndex.Record record = source == null ? null : this.mCache.get(source);
+        if (record != null)
+            record.position = position;
+    }
+
+    /**
+     * Get the cached media info
+     *
+     * @param source the media path
+     * @return the info or null if not yet probed
+     */
+    ScMetadataIndex.Record getCached(String source) {
+        return source == null ? null : this.mCache.get(source);
+    }
+
+    /**
+     * Request the media duration.
+     * If the duration is already cached the listener will be called immediately
+     * otherwise it will be called on the main thread when the value arrives.
+     * If the last probe of the source failed recently the listener will be called
+     * immediately with UNKNOWN.
+     * If the same source is already waiting the request will take the new priority.
+     *
+     * @param context  the context
+     * @param source   the media path
+     * @param listener the listener
+     * @param priority the scheduler priority
+     */
+    void probe(Context context, final String source, OnProbeListener listener,
+               int priority) {
+        // Check if already known
+        ScMetadataIndex.Record cached = this.getCached(source);
+        if (cached != null) {
+            listener.onDurationProbed(source, cached.duration, cached.position);
+            return;
+        }
+
+        // Check if failed recently
+        if (this.isFailed(source)) {
+            listener.onDurationProbed(source, ScDurationProbe.UNKNOWN, 0);
+            return;
+        }
+
+        // Check if already probing the same source
+        List<OnProbeListener> listeners = this.mPending.get(source);
+        if (listeners != null) {
+            if (!listeners.contains(listener))
+                listeners.add(listener);
+            ScPrepareScheduler.getInstance().reschedule(this.mTasks.get(source), priority);
+            return;
+        }
+
+        // Enqueue the new request
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        this.mPending.put(source, listeners);
+
+        final Context appContext = context.getApplicationContext();
+        ScPrepareScheduler.Task task = new ScPrepareScheduler.Task() {
+            @Override
+            void work() {
+                // Probe
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = ScPlayerMetrics.now();
+                final ScMetadataIndex.Record record = ScDurationProbe.readInfo(appContext, source);
+                ScPlayerMetrics.recordProbeTime(start);
+
+                // Back to the main thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(source, record);
+                    }
+                });
+            }
+
+            @Override
+            void onDropped() {
+                // The listeners will request again when needed
+                mPending.remove(source);
+                mTasks.remove(source);
+            }
+        };
+        this.mTasks.put(source, task);
+        ScPrepareScheduler.getInstance().schedule(task, priority);
+    }
+
+    /**
+     * Remove the listener from the waiting list.
+     * When nobody is waiting anymore the probe will be removed from the queue if not
+     * yet started.
+     *
+     * @param source   the media path
+     * @param listener the listener
+     */
+    void cancel(String source, OnProbeListener listener) {
+        // Check if waiting
+        List<OnProbeListener> listeners = this.mPending.get(source);
+        if (listeners == null)
+            return;
+
+        // Remove the listener and the not started probe
+        listeners.remove(listener);
+        if (listeners.isEmpty() &&
+                ScPrepareScheduler.getInstance().cancel(this.mTasks.get(source))) {
+            this.mPending.remove(source);
+            this.mTasks.remove(source);
+        }
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread when the duration is known
+     */
+    interface OnProbeListener {
+
+        /**
+         * When the duration was retrieved
+         *
+         * @param source   the media path
+         * @param duration the duration in milliseconds or UNKNOWN if failed
+         * @param position the last playback position in milliseconds
+         */
+        void onDurationProbed(String source, int duration, int position);
+
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import com.sccomponents.playerbutton.core.ScEnvelopeBuilder;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Compute the amplitude envelope of the whole media.
+ * The media is decoded on the preparation scheduler with the platform extractor and codec
+ * and reduced to a compact array of unsigned 8 bit peaks. The results are stored in
+ * a bounded LRU cache keyed by source.
+ * NOTE that all the public methods must be called from the main thread and that the
+ * envelope is available only from JELLY_BEAN.
+ */
+
+final class ScEnvelopeDecoder {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int ENVELOPE_SIZE = 256;
+
+    private static final int CACHE_SIZE = 128;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScEnvelopeDecoder mInstance = null;
+
+    private final LruCache<String, byte[]> mCache;
+    private final HashMap<String, List<OnEnvelopeListener>> mPending;
+    private final HashMap<String, ScPrepareScheduler.Task> mTasks;
+    private final Handler mHandler;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScEnvelopeDecoder() {
+        this.mCache = new LruCache<>(ScEnvelopeDecoder.CACHE_SIZE);
+        this.mPending = new HashMap<>();
+        this.mTasks = new HashMap<>();
+        this.mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the decoder
+     */
+    static ScEnvelopeDecoder getInstance() {
+        if (ScEnvelopeDecoder.mInstance == null)
+            ScEnvelopeDecoder.mInstance = new ScEnvelopeDecoder();
+        return ScEnvelopeDecoder.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Decode the media and find the peak of every envelope bucket.
+     * NOTE that this method is blocking and must be called on the worker.
+     *
+     * @param context the context
+     * @param source  the media path
+     * @return the normalized peaks or null if the media cannot be decoded
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static byte[] readEnvelope(Context context, String source) {
+        ScPcmDecoder decoder = null;
+        try {
+            // Open the media and check for a valid duration
+            decoder = new ScPcmDecoder(context, source);
+            long duration = decoder.getDuration();
+            if (duration <= 0)
+                return null;
+
+            // Find the peak of every bucket
+            ScEnvelopeBuilder builder =
+                    new ScEnvelopeBuilder(ScEnvelopeDecoder.ENVELOPE_SIZE, duration);
+            ShortBuffer samples;
+            while ((samples = decoder.read()) != null)
+                builder.add(samples, decoder.getPresentationTime(),
+                        decoder.getSampleRate(), decoder.getChannels());
+
+            // Normalize
+            return builder.build();
+
+        } catch (Exception ex) {
+            // Print the error on the stack and return
+            ex.printStackTrace();
+            return null;
+
+        } finally {
+            // Release all
+            if (decoder != null)
+                decoder.release();
+        }
+    }
+
+    /**
+     * Store the result and dispatch it to all the waiting listeners
+     *
+     * @param source   the media path
+     * @param envelope the envelope
+     */
+    private void dispatch(String source, byte[] envelope) {
+        // Store
+        if (envelope != null)
+            this.mCache.put(source, envelope);
+        this.mTasks.remove(source);
+
+        // Notify
+        List<OnEnvelopeListener> listeners = this.mPending.remove(source);
+        if (listeners != null)
+            for (OnEnvelopeListener listener : listeners)
+                listener.onEnvelopeDecoded(source, envelope);
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Request the media envelope.
+     * If the envelope is already cached the listener will be called immediately
+     * otherwise it will be called on the main thread when the decoding is done.
+     * If the same source is already waiting the request will take the new priority.
+     *
+     * @param context  the context
+     * @param source   the media path
+     * @param listener the listener
+     * @param priority the scheduler priority
+     */
+    void decode(Context context, final String source, OnEnvelopeListener listener,
+                int priority) {
+        // Check if the platform can decode
+        if (source == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            listener.onEnvelopeDecoded(source, null);
+            return;
+        }
+
+        // Check if already known
+        byte[] cached = this.mCache.get(source);
+        if (cached != null) {
+            listener.onEnvelopeDecoded(source, cached);
+            return;
+        }
+
+        // Check if already decoding the same source
+        List<OnEnvelopeListener> listeners = this.mPending.get(source);
+        if (listeners != null) {
+            if (!listeners.contains(listener))
+                listeners.add(listener);
+            ScPrepareScheduler.getInstance().reschedule(this.mTasks.get(source), priority);
+            return;
+        }
+
+        // Enqueue the new request
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        this.mPending.put(source, listeners);
+
+        final Context appContext = context.getApplicationContext();
+        ScPrepareScheduler.Task task = new ScPrepareScheduler.Task() {
+            @Override
+            void work() {
+                // Decode
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final byte[] envelope = ScEnvelopeDecoder.readEnvelope(appContext, source);
+
+                // Back to the main thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(source, envelope);
+                    }
+                });
+            }
+
+            @Override
+            void onDropped() {
+                // The listeners will request again when needed
+                mPending.remove(source);
+                mTasks.remove(source);
+            }
+        };
+        this.mTasks.put(source, task);
+        ScPrepareScheduler.getInstance().schedule(task, priority);
+    }
+
+    /**
+     * Remove the listener from the waiting list.
+     * When nobody is waiting anymore the decoding will be removed from the queue if not
+     * yet started.
+     *
+     * @param source   the media path
+     * @param listener the listener
+     */
+    void cancel(String source, OnEnvelopeListener listener) {
+        // Check if waiting
+        List<OnEnvelopeListener> listeners = this.mPending.get(source);
+        if (listeners == null)
+            return;
+
+        // Remove the listener and the not started decoding
+        listeners.remove(listener);
+        if (listeners.isEmpty() &&
+                ScPrepareScheduler.getInstance().cancel(this.mTasks.get(source))) {
+            this.mPending.remove(source);
+            this.mTasks.remove(source);
+        }
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread when the envelope is decoded
+     */
+    interface OnEnvelopeListener {
+
+        /**
+         * When the envelope was decoded
+         *
+         * @param source   the media path
+         * @param envelope the unsigned 8 bit peaks or null if not available
+         */
+        void onEnvelopeDecoded(String source, byte[] envelope);
+
+    }
+
+}
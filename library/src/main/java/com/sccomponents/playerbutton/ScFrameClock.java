@@ -0,0 +1,193 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+
+/**
+ * Process wide frame clock.
+ * Multiplex the periodic update of all the ScPlayerButton instances that need
+ * to be refreshed using the display vsync where available.
+ * The clock not use any thread and stop to tick when there are no listeners.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScFrameClock {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int FRAME_RATE = 10; // Hertz
+    private static final long FRAME_INTERVAL = 1000 / ScFrameClock.FRAME_RATE; // Milliseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScFrameClock mInstance = null;
+
+    private final ArrayList<OnFrameListener> mListeners;
+    private final ArrayList<OnFrameListener> mDispatching;
+    private final Ticker mTicker;
+    private boolean mScheduled = false;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScFrameClock() {
+        this.mListeners = new ArrayList<>();
+        this.mDispatching = new ArrayList<>();
+
+        // Use the choreographer if available
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            this.mTicker = new ChoreographerTicker();
+        else
+            this.mTicker = new HandlerTicker();
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the clock
+     */
+    static ScFrameClock getInstance() {
+        if (ScFrameClock.mInstance == null)
+            ScFrameClock.mInstance = new ScFrameClock();
+        return ScFrameClock.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Schedule the next tick if needed
+     */
+    private void schedule() {
+        if (!this.mScheduled && !this.mListeners.isEmpty()) {
+            this.mScheduled = true;
+            this.mTicker.post(ScFrameClock.FRAME_INTERVAL);
+        }
+    }
+
+    /**
+     * Dispatch the tick to all the listeners
+     */
+    private void tick() {
+        // Holder
+        this.mScheduled = false;
+
+        // Dispatch on a copy since the listeners can remove themselves
+        this.mDispatching.addAll(this.mListeners);
+        for (int index = 0; index < this.mDispatching.size(); index++)
+            this.mDispatching.get(index).onFrame();
+        this.mDispatching.clear();
+
+        // Next
+        this.schedule();
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Add a listener and start to tick if needed
+     *
+     * @param listener the listener
+     */
+    void add(OnFrameListener listener) {
+        if (!this.mListeners.contains(listener)) {
+            this.mListeners.add(listener);
+            this.schedule();
+        }
+    }
+
+    /**
+     * Remove a listener.
+     * When there are no more listeners the clock will stop to tick.
+     *
+     * @param listener the listener
+     */
+    void remove(OnFrameListener listener) {
+        this.mListeners.remove(listener);
+    }
+
+
+    // ***************************************************************************************
+    // Tickers
+
+    /**
+     * Post the delayed tick
+     */
+    private interface Ticker {
+
+        /**
+         * Post the next tick
+         *
+         * @param delay in milliseconds
+         */
+        void post(long delay);
+
+    }
+
+    /**
+     * Tick aligned with the display vsync
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerTicker implements Ticker, Choreographer.FrameCallback {
+
+        @Override
+        public void post(long delay) {
+            Choreographer.getInstance().postFrameCallbackDelayed(this, delay);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            tick();
+        }
+
+    }
+
+    /**
+     * Tick using the main thread handler for the old devices
+     */
+    private class HandlerTicker implements Ticker, Runnable {
+
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void post(long delay) {
+            this.mHandler.postDelayed(this, delay);
+        }
+
+        @Override
+        public void run() {
+            tick();
+        }
+
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread on every clock tick
+     */
+    interface OnFrameListener {
+
+        /**
+         * When the frame is ticked
+         */
+        void onFrame();
+
+    }
+
+}
@@ -0,0 +1,758 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Progressive disk cache of the remote (HTTP) media.
+ * Every media is stored in a sparse file divided in blocks and a map of the blocks
+ * already fetched, so the fetched ranges are served from the disk and only the missing
+ * ones are requested to the server by HTTP range requests. While a player is reading
+ * the gaps inside a window ahead of the read position are filled in background.
+ * The cache is bounded by size and the least recently used media are evicted, also
+ * while filling: when the media in use alone exceed the budget the filler stop and only
+ * the blocks requested by the reader are fetched.
+ * NOTE that feeding the player and the extractor need at least MARSHMALLOW, on the
+ * older devices the remote media are read directly by the platform.
+ */
+
+final class ScHttpCache {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int BLOCK_SIZE = 64 * 1024; // Bytes
+    static final int READ_AHEAD = 2 * 1024 * 1024; // Bytes
+
+    private static final int FETCH_BLOCKS = 4;
+    private static final long MAX_SIZE = 64 * 1024 * 1024; // Bytes
+    private static final int CONNECT_TIMEOUT = 10000; // Milliseconds
+    private static final int READ_TIMEOUT = 15000; // Milliseconds
+    private static final int KEEP_ALIVE = 5; // Seconds
+    private static final String DIRECTORY = "ScHttpCache";
+    private static final String DATA_EXTENSION = ".data";
+    private static final String MAP_EXTENSION = ".map";
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScHttpCache mInstance = null;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final HashMap<String, Entry> mEntries;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * A cached media.
+     * The file access is synchronized on the entry while the network access is not, so
+     * the reader and the filler can fetch at the same time.
+     */
+    static final class Entry {
+
+        private final String mUrl;
+        private final File mDataFile;
+        private final File mMapFile;
+
+        private RandomAccessFile mData = null;
+        private BitSet mBlocks = new BitSet();
+        private long mLength = -1;
+        private int mOpenCount = 0;
+        private volatile long mCursor = 0;
+        private volatile boolean mFilling = false;
+
+        Entry(String url, File dataFile, File mapFile) {
+            this.mUrl = url;
+            this.mDataFile = dataFile;
+            this.mMapFile = mapFile;
+        }
+
+        /**
+         * Open the data file and load the blocks map
+         *
+         * @throws IOException if the file cannot be opened
+         */
+        private synchronized void open() throws IOException {
+            // Load the map, a damaged map will be ignored
+            if (this.mMapFile.exists() && this.mDataFile.exists()) {
+                DataInputStream input = null;
+                try {
+                    input = new DataInputStream(new FileInputStream(this.mMapFile));
+                    this.mLength = input.readLong();
+                    byte[] bytes = new byte[input.readInt()];
+                    input.readFully(bytes);
+                    this.mBlocks = BitSet.valueOf(bytes);
+
+                } catch (IOException ex) {
+                    this.mLength = -1;
+                    this.mBlocks = new BitSet();
+
+                } finally {
+                    if (input != null)
+                        input.close();
+                }
+            }
+
+            // Open the data
+            this.mData = new RandomAccessFile(this.mDataFile, "rw");
+            this.mDataFile.setLastModified(System.currentTimeMillis());
+        }
+
+        /**
+         * Store the blocks map and close the data file
+         */
+        private synchronized void close() {
+            this.saveMap();
+            try {
+                if (this.mData != null)
+                    this.mData.close();
+            } catch (IOException ex) {
+                // Print the error on the stack
+                ex.printStackTrace();
+            }
+            this.mData = null;
+        }
+
+        /**
+         * Store the blocks map
+         */
+        private synchronized void saveMap() {
+            DataOutputStream output = null;
+            try {
+                byte[] bytes = this.mBlocks.toByteArray();
+                output = new DataOutputStream(new FileOutputStream(this.mMapFile));
+                output.writeLong(this.mLength);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+
+            } catch (IOException ex) {
+                // Print the error on the stack, the media will be fetched again
+                ex.printStackTrace();
+
+            } finally {
+                try {
+                    if (output != null)
+                        output.close();
+                } catch (IOException ex) {
+                    // Nothing to do
+                }
+            }
+        }
+
+        /**
+         * Check if the data file is open
+         *
+         * @return true if open
+         */
+        synchronized boolean isOpen() {
+            return this.mData != null;
+        }
+
+        /**
+         * Get the media length
+         *
+         * @return the length in bytes or -1 if still unknown
+         */
+        synchronized long getLength() {
+            return this.mLength;
+        }
+
+        /**
+         * Set the media length.
+         * If the media is changed on the server all the fetched blocks are dropped.
+         *
+         * @param length the length in bytes
+         */
+        private synchronized void setLength(long length) {
+            if (length >= 0 && this.mLength >= 0 && length != this.mLength)
+                this.mBlocks.clear();
+            if (length >= 0)
+                this.mLength = length;
+        }
+
+        /**
+         * Check if the block containing the position is fetched
+         *
+         * @param position the position in bytes
+         * @return true if fetched
+         */
+        synchronized boolean isCached(long position) {
+            return this.mBlocks.get((int) (position / ScHttpCache.BLOCK_SIZE));
+        }
+
+        /**
+         * Find the first block not yet fetched inside the read ahead window
+         *
+         * @return the block position in bytes or -1 if all fetched or length unknown
+         */
+        synchronized long findMissing() {
+            // Check for empty values
+            if (this.mLength < 0)
+                return -1;
+
+            // Search from the cursor until the end of the window
+            long limit = Math.min(this.mLength, this.mCursor + ScHttpCache.READ_AHEAD);
+            int count = (int) ((limit + ScHttpCache.BLOCK_SIZE - 1) / ScHttpCache.BLOCK_SIZE);
+            int cursor = (int) (this.mCursor / ScHttpCache.BLOCK_SIZE);
+            int block = this.mBlocks.nextClearBit(cursor);
+            return block >= count ? -1 : (long) block * ScHttpCache.BLOCK_SIZE;
+        }
+
+        /**
+         * Read the cached data
+         *
+         * @param position the position in bytes
+         * @param buffer   the destination
+         * @param offset   the destination offset
+         * @param size     the max bytes to read
+         * @return the read bytes, 0 if not cached or -1 if the end of the media
+         * @throws IOException if the file cannot be read
+         */
+        synchronized int read(long position, byte[] buffer, int offset, int size)
+                throws IOException {
+            // Check the limits
+            if (this.mData == null)
+                throw new IOException("Cache entry closed");
+            if (this.mLength >= 0 && position >= this.mLength)
+                return -1;
+
+            // Find the contiguous cached bytes
+            long end = position;
+            while (end < position + size && this.isCached(end))
+                end = (end / ScHttpCache.BLOCK_SIZE + 1) * ScHttpCache.BLOCK_SIZE;
+            end = Math.min(end, position + size);
+            if (this.mLength >= 0)
+                end = Math.min(end, this.mLength);
+            if (end <= position)
+                return 0;
+
+            // Read
+            this.mData.seek(position);
+            return this.mData.read(buffer, offset, (int) (end - position));
+        }
+
+        /**
+         * Write a fetched block
+         *
+         * @param position the block position in bytes
+         * @param block    the data
+         * @param count    the data size
+         * @throws IOException if the file cannot be written
+         */
+        private synchronized void write(long position, byte[] block, int count)
+                throws IOException {
+            // Check if still open
+            if (this.mData == null)
+                throw new IOException("Cache entry closed");
+
+            this.mData.seek(position);
+            this.mData.write(block, 0, count);
+            this.mBlocks.set((int) (position / ScHttpCache.BLOCK_SIZE));
+        }
+
+        /**
+         * Fetch some blocks starting from the one containing the position.
+         * NOTE that this method is blocking and must be called on a worker.
+         *
+         * @param position the position in bytes
+         * @throws IOException if the server cannot be reached or not give the first block
+         */
+        void fetch(long position) throws IOException {
+            // Find the range
+            long start = position / ScHttpCache.BLOCK_SIZE * ScHttpCache.BLOCK_SIZE;
+            long end = start + ScHttpCache.FETCH_BLOCKS * ScHttpCache.BLOCK_SIZE - 1;
+            long length = this.getLength();
+            if (length >= 0)
+                end = Math.min(end, length - 1);
+
+            // Request
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(this.mUrl).openConnection();
+            try {
+                connection.setConnectTimeout(ScHttpCache.CONNECT_TIMEOUT);
+                connection.setReadTimeout(ScHttpCache.READ_TIMEOUT);
+                connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+                connection.setRequestProperty("Accept-Encoding", "identity");
+
+                int code = connection.getResponseCode();
+                InputStream input = connection.getInputStream();
+
+                if (code == HttpURLConnection.HTTP_PARTIAL) {
+                    // Range served: bytes start-end/total
+                    String range = connection.getHeaderField("Content-Range");
+                    int slash = range == null ? -1 : range.lastIndexOf('/');
+                    if (slash >= 0 && !range.endsWith("*"))
+                        this.setLength(Long.parseLong(range.substring(slash + 1).trim()));
+
+                } else if (code == HttpURLConnection.HTTP_OK) {
+                    // The server not support the ranges, skip until the start
+                    this.setLength(ScHttpCache.getContentLength(connection));
+                    long skipped = 0;
+                    while (skipped < start) {
+                        long count = input.skip(start - skipped);
+                        if (count <= 0)
+                            throw new IOException("Unexpected end of stream");
+                        skipped += count;
+                    }
+
+                } else {
+                    throw new IOException("Unexpected response " + code);
+                }
+
+                // Write block by block
+                byte[] block = new byte[ScHttpCache.BLOCK_SIZE];
+                long current = start;
+                for (; current <= end; current += ScHttpCache.BLOCK_SIZE) {
+                    int count = ScHttpCache.readFully(input, block);
+                    if (count <= 0)
+                        break;
+
+                    // A short block is valid only at the end of the media
+                    if (count < block.length) {
+                        length = this.getLength();
+                        if (length >= 0 && current + count < length)
+                            break;
+                        this.setLength(current + count);
+                    }
+                    this.write(current, block, count);
+                    if (count < block.length) {
+                        current += ScHttpCache.BLOCK_SIZE;
+                        break;
+                    }
+                }
+
+                // The stream ended before the first block was complete
+                length = this.getLength();
+                if (current == start && (length < 0 || start < length))
+                    throw new IOException("Unexpected end of stream at " + start);
+
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Set the read position so the filler will continue from it
+         *
+         * @param position the position in bytes
+         */
+        void setCursor(long position) {
+            this.mCursor = position;
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScHttpCache(Context context) {
+        this(new File(context.getCacheDir(), ScHttpCache.DIRECTORY), ScHttpCache.MAX_SIZE);
+    }
+
+    /**
+     * @param directory the cache directory
+     * @param maxSize   the budget in bytes
+     */
+    ScHttpCache(File directory, long maxSize) {
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+        this.mEntries = new HashMap<>();
+        this.mHandler = new Handler(Looper.getMainLooper());
+
+        // The filler thread will die when there is nothing to fetch
+        this.mExecutor = new ThreadPoolExecutor(
+                0, 1, ScHttpCache.KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(ScPlayerMetrics.track(runnable), "ScHttpCache");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @param context the context
+     * @return the cache
+     */
+    static synchronized ScHttpCache getInstance(Context context) {
+        if (ScHttpCache.mInstance == null)
+            ScHttpCache.mInstance = new ScHttpCache(context.getApplicationContext());
+        return ScHttpCache.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Get the content length from the response header
+     *
+     * @param connection the connection
+     * @return the length or -1 if unknown
+     */
+    private static long getContentLength(HttpURLConnection connection) {
+        try {
+            String length = connection.getHeaderField("Content-Length");
+            return length == null ? -1 : Long.parseLong(length.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read the stream until the buffer is full or the stream end
+     *
+     * @param input  the stream
+     * @param buffer the buffer
+     * @return the read bytes
+     * @throws IOException if the stream cannot be read
+     */
+    private static int readFully(InputStream input, byte[] buffer) throws IOException {
+        int count = 0;
+        while (count < buffer.length) {
+            int read = input.read(buffer, count, buffer.length - count);
+            if (read < 0)
+                break;
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * Find the cache file name of the media
+     *
+     * @param url the media url
+     * @return the key
+     */
+    private static String toKey(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            for (byte value : digest)
+                builder.append(String.format("%02x", value & 0xff));
+            return builder.toString();
+
+        } catch (NoSuchAlgorithmException | IOException ex) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * Delete the least recently used media not in use until the cache size is
+     * inside the budget
+     *
+     * @return false if the media in use alone exceed the budget
+     */
+    private synchronized boolean evict() {
+        // Check for empty values
+        File[] files = this.mDirectory.listFiles();
+        if (files == null)
+            return true;
+
+        // Find the size
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        if (size <= this.mMaxSize)
+            return true;
+
+        // Oldest first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            // Check if done
+            if (size <= this.mMaxSize)
+                break;
+
+            // Delete the data and its map if not in use
+            String name = file.getName();
+            if (!name.endsWith(ScHttpCache.DATA_EXTENSION))
+                continue;
+            String key = name.substring(0, name.length() - ScHttpCache.DATA_EXTENSION.length());
+            if (this.mEntries.containsKey(key))
+                continue;
+
+            File map = new File(this.mDirectory, key + ScHttpCache.MAP_EXTENSION);
+            size -= file.length() + map.length();
+            file.delete();
+            map.delete();
+        }
+        return size <= this.mMaxSize;
+    }
+
+    /**
+     * Fill the gaps of the read ahead window in background while the entry is open and the
+     * cache is inside the budget
+     *
+     * @param entry the entry
+     */
+    private void fill(final Entry entry) {
+        // Check if already filling
+        if (entry.mFilling)
+            return;
+        entry.mFilling = true;
+
+        this.mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    // Fetch the missing blocks making room before every fetch
+                    long position;
+                    while (entry.isOpen() && (position = entry.findMissing()) >= 0 &&
+                            evict())
+                        entry.fetch(position);
+
+                } catch (IOException ex) {
+                    // Stop, the reader will fetch the missing blocks by itself
+                    ex.printStackTrace();
+
+                } finally {
+                    entry.mFilling = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Post the buffering state on the main thread
+     *
+     * @param listener  the listener
+     * @param buffering the state
+     */
+    void notifyBuffering(final OnBufferingListener listener, final boolean buffering) {
+        if (listener == null)
+            return;
+
+        this.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onBuffering(buffering);
+            }
+        });
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Check if the media is remote
+     *
+     * @param source the media path
+     * @return true if HTTP or HTTPS
+     */
+    static boolean isRemote(String source) {
+        String scheme = source == null ? null : Uri.parse(source).getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * Open the cache entry of the media.
+     * Must be closed when not used anymore.
+     *
+     * @param url the media url
+     * @return the entry
+     * @throws IOException if the cache cannot be written
+     */
+    synchronized Entry open(String url) throws IOException {
+        // Check if already open
+        String key = ScHttpCache.toKey(url);
+        Entry entry = this.mEntries.get(key);
+
+        if (entry == null) {
+            // Make room and open
+            if (!this.mDirectory.exists() && !this.mDirectory.mkdirs())
+                throw new IOException("Cannot create the cache directory");
+            this.evict();
+
+            entry = new Entry(url,
+                    new File(this.mDirectory, key + ScHttpCache.DATA_EXTENSION),
+                    new File(this.mDirectory, key + ScHttpCache.MAP_EXTENSION));
+            entry.open();
+            this.mEntries.put(key, entry);
+        }
+
+        entry.mOpenCount++;
+        return entry;
+    }
+
+    /**
+     * Start to fill the entry gaps in background
+     *
+     * @param entry the entry
+     */
+    void prefetch(Entry entry) {
+        this.fill(entry);
+    }
+
+    /**
+     * Close the cache entry
+     *
+     * @param entry the entry
+     */
+    synchronized void close(Entry entry) {
+        // Check if still in use
+        if (--entry.mOpenCount > 0)
+            return;
+
+        // Close
+        this.mEntries.remove(ScHttpCache.toKey(entry.mUrl));
+        entry.close();
+    }
+
+    /**
+     * Set the player source reading the remote media through the cache.
+     * The buffering listener will be called on the main thread when the player must wait
+     * for the network.
+     *
+     * @param player   the player
+     * @param context  the context
+     * @param source   the media path
+     * @param listener the buffering listener
+     * @throws IOException if the source cannot be read
+     */
+    static void setDataSource(MediaPlayer player, Context context, String source,
+                              OnBufferingListener listener) throws IOException {
+        // Check if can use the cache
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !ScHttpCache.isRemote(source)) {
+            player.setDataSource(context, Uri.parse(source));
+            return;
+        }
+
+        // From the cache, the player will close the data source
+        ScHttpCache.setDataSource(player, new ScHttpDataSource(
+                ScHttpCache.getInstance(context), source, true, listener));
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static void setDataSource(MediaPlayer player, ScHttpDataSource dataSource) {
+        try {
+            player.setDataSource(dataSource);
+        } catch (RuntimeException ex) {
+            // Close and propagate
+            dataSource.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Set the extractor source reading the remote media through the cache
+     *
+     * @param extractor the extractor
+     * @param context   the context
+     * @param source    the media path
+     * @return the data source to close after the extractor release or null
+     * @throws IOException if the source cannot be read
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static Closeable setDataSource(MediaExtractor extractor, Context context, String source)
+            throws IOException {
+        // Check if can use the cache
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !ScHttpCache.isRemote(source)) {
+            extractor.setDataSource(context, Uri.parse(source), null);
+            return null;
+        }
+
+        // From the cache
+        ScHttpDataSource dataSource = new ScHttpDataSource(
+                ScHttpCache.getInstance(context), source, false, null);
+        ScHttpCache.setDataSource(extractor, dataSource);
+        return dataSource;
+    }
+
+    /**
+     * Close the data source returned by the extractor setting
+     *
+     * @param dataSource the data source, can be null
+     */
+    static void closeDataSource(Closeable dataSource) {
+        try {
+            if (dataSource != null)
+                dataSource.close();
+        } catch (IOException ex) {
+            // Print the error on the stack
+            ex.printStackTrace();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static void setDataSource(MediaExtractor extractor, ScHttpDataSource dataSource)
+            throws IOException {
+        try {
+            extractor.setDataSource(dataSource);
+        } catch (IOException | RuntimeException ex) {
+            // Close and propagate
+            dataSource.close();
+            throw ex;
+        }
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread when the reading must wait for the network
+     */
+    interface OnBufferingListener {
+
+        /**
+         * When the buffering state change
+         *
+         * @param buffering true if waiting for the network
+         */
+        void onBuffering(boolean buffering);
+
+    }
+
+}
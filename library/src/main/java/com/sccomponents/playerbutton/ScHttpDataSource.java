@@ -0,0 +1,111 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import java.io.IOException;
+
+
+/**
+ * Feed the player or the extractor with a remote media read through the disk cache.
+ * The reads are served from the cache and only the missing blocks are fetched from
+ * the network, in this case the buffering listener is notified.
+ * NOTE that the methods are called on the platform reading thread.
+ */
+
+@TargetApi(Build.VERSION_CODES.M)
+final class ScHttpDataSource extends MediaDataSource {
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private final ScHttpCache mCache;
+    private final ScHttpCache.Entry mEntry;
+    private final boolean mPrefetch;
+    private final ScHttpCache.OnBufferingListener mListener;
+    private boolean mClosed = false;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    /**
+     * @param cache    the cache
+     * @param url      the media url
+     * @param prefetch true for fill the gaps in background while reading
+     * @param listener the buffering listener, can be null
+     * @throws IOException if the cache cannot be written
+     */
+    ScHttpDataSource(ScHttpCache cache, String url, boolean prefetch,
+                     ScHttpCache.OnBufferingListener listener) throws IOException {
+        this.mCache = cache;
+        this.mEntry = cache.open(url);
+        this.mPrefetch = prefetch;
+        this.mListener = listener;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Fetch the block containing the position notifying the buffering
+     *
+     * @param position the position in bytes
+     * @throws IOException if the server cannot be reached
+     */
+    private void fetch(long position) throws IOException {
+        this.mCache.notifyBuffering(this.mListener, true);
+        try {
+            this.mEntry.fetch(position);
+        } finally {
+            this.mCache.notifyBuffering(this.mListener, false);
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        // Check for empty values
+        if (size == 0)
+            return 0;
+
+        // Fetch if not cached and keep the filler near the reading
+        this.mEntry.setCursor(position);
+        int count = this.mEntry.read(position, buffer, offset, size);
+        if (count == 0) {
+            this.fetch(position);
+            count = this.mEntry.read(position, buffer, offset, size);
+        }
+        if (this.mPrefetch)
+            this.mCache.prefetch(this.mEntry);
+
+        // The end of the media is found by the cache, nothing fetched before it is an error
+        if (count == 0)
+            throw new IOException("Cannot fetch the media at " + position);
+        return count;
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        // The first fetch will find the length
+        if (this.mEntry.getLength() < 0 && !this.mEntry.isCached(0))
+            this.fetch(0);
+        return this.mEntry.getLength();
+    }
+
+    @Override
+    public synchronized void close() {
+        // Check if already closed
+        if (this.mClosed)
+            return;
+
+        this.mClosed = true;
+        this.mCache.close(this.mEntry);
+    }
+
+}
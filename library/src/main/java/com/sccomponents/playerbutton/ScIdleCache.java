@@ -0,0 +1,182 @@
+package com.sccomponents.playerbutton;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+
+/**
+ * Process wide cache of the rasterized idle states.
+ * The idle appearance of a button is fully determined by its size, color, font size,
+ * icon and duration label so identical buttons can blit the same bitmap instead of
+ * drawing again the vector icon and measuring the text.
+ * The bitmaps are evicted by the least recently used policy under a bytes budget.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScIdleCache {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int MAX_BUDGET = 4 * 1024 * 1024; // Bytes
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScIdleCache mInstance = null;
+
+    private final LruCache<Key, Bitmap> mCache;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * The idle state key.
+     * The instances can be reused for the lookup so no object will be created while
+     * drawing if the state is already cached.
+     */
+    static final class Key {
+
+        private int mWidth;
+        private int mHeight;
+        private int mColor;
+        private float mFontSize;
+        private int mIcon;
+        private long mLabel;
+
+        /**
+         * Set all the key values
+         *
+         * @param width    the width
+         * @param height   the height
+         * @param color    the foreground color
+         * @param fontSize the font size
+         * @param icon     the icon resource
+         * @param label    the label characters
+         * @param length   the label length, at most 8 characters
+         */
+        void set(int width, int height, int color, float fontSize, int icon,
+                 char[] label, int length) {
+            this.mWidth = width;
+            this.mHeight = height;
+            this.mColor = color;
+            this.mFontSize = fontSize;
+            this.mIcon = icon;
+
+            // Pack the label, it contain only ASCII characters
+            this.mLabel = 0;
+            for (int index = 0; index < length; index++)
+                this.mLabel = (this.mLabel << 8) | (label[index] & 0xff);
+        }
+
+        /**
+         * Create a copy of this key
+         *
+         * @return the copy
+         */
+        Key copy() {
+            Key key = new Key();
+            key.mWidth = this.mWidth;
+            key.mHeight = this.mHeight;
+            key.mColor = this.mColor;
+            key.mFontSize = this.mFontSize;
+            key.mIcon = this.mIcon;
+            key.mLabel = this.mLabel;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key))
+                return false;
+
+            Key key = (Key) object;
+            return this.mWidth == key.mWidth &&
+                    this.mHeight == key.mHeight &&
+                    this.mColor == key.mColor &&
+                    this.mFontSize == key.mFontSize &&
+                    this.mIcon == key.mIcon &&
+                    this.mLabel == key.mLabel;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.mWidth;
+            hash = hash * 31 + this.mHeight;
+            hash = hash * 31 + this.mColor;
+            hash = hash * 31 + Float.floatToIntBits(this.mFontSize);
+            hash = hash * 31 + this.mIcon;
+            hash = hash * 31 + (int) (this.mLabel ^ (this.mLabel >>> 32));
+            return hash;
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScIdleCache() {
+        // Find the budget by the available memory
+        int budget = (int) Math.min(
+                ScIdleCache.MAX_BUDGET, Runtime.getRuntime().maxMemory() / 32);
+
+        this.mCache = new LruCache<Key, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the cache
+     */
+    static ScIdleCache getInstance() {
+        if (ScIdleCache.mInstance == null)
+            ScIdleCache.mInstance = new ScIdleCache();
+        return ScIdleCache.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Check if a bitmap of the given dimension can be cached
+     *
+     * @param width  the width
+     * @param height the height
+     * @return true if fit inside the budget
+     */
+    boolean canCache(int width, int height) {
+        return width > 0 && height > 0 &&
+                (long) width * height * 4 <= this.mCache.maxSize() / 4;
+    }
+
+    /**
+     * Get the cached idle state
+     *
+     * @param key the key
+     * @return the bitmap or null if not cached
+     */
+    Bitmap get(Key key) {
+        return this.mCache.get(key);
+    }
+
+    /**
+     * Store the idle state.
+     * The key will be copied so the caller can reuse it.
+     *
+     * @param key    the key
+     * @param bitmap the bitmap
+     */
+    void put(Key key, Bitmap bitmap) {
+        this.mCache.put(key.copy(), bitmap);
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.sccomponents.playerbutton;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Persistent index of the media metadata.
+ * Store the duration, sample rate, channels count and the last playback position of
+ * every source inside a small memory mapped file so they will be known at the next
+ * process start without touching any decoder.
+ * The records are fixed size slots of an open addressing hash table keyed by the
+ * source URI plus the file size and the last modified time. Every record is protected
+ * by a checksum written as the last field so a record torn by a crash will be ignored.
+ * The file is opened and mapped at the first access and the key read the file
+ * attributes, so the lookups are blocking and must be called on a worker while the
+ * positions are written on the index own thread.
+ */
+
+final class ScMetadataIndex {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final String FILE_NAME = "ScPlayerButton.index";
+
+    private static final int MAGIC = 0x53435049; // SCPI
+    private static final int VERSION = 1;
+    private static final int CAPACITY = 4096; // Records
+    private static final int MAX_PROBES = 8;
+    private static final int KEEP_ALIVE = 5; // Seconds
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+
+    private static final int OFFSET_KEY = 0;
+    private static final int OFFSET_DURATION = 8;
+    private static final int OFFSET_SAMPLE_RATE = 12;
+    private static final int OFFSET_CHANNELS = 16;
+    private static final int OFFSET_POSITION = 20;
+    private static final int OFFSET_CHECKSUM = 24;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScMetadataIndex mInstance = null;
+
+    private final Context mContext;
+    private final ExecutorService mWriter;
+    private MappedByteBuffer mBuffer = null;
+    private boolean mMapped = false;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * The metadata of a source
+     */
+    static final class Record {
+
+        int duration;
+        int sampleRate;
+        int channels;
+        int position;
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScMetadataIndex(Context context) {
+        // The file will be mapped at the first access
+        this.mContext = context;
+
+        // The writer thread will die when there is nothing to write
+        this.mWriter = new ThreadPoolExecutor(
+                0, 1, ScMetadataIndex.KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(ScPlayerMetrics.track(runnable), "ScMetadataIndex");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @param context the context
+     * @return the index
+     */
+    static synchronized ScMetadataIndex getInstance(Context context) {
+        if (ScMetadataIndex.mInstance == null)
+            ScMetadataIndex.mInstance = new ScMetadataIndex(context.getApplicationContext());
+        return ScMetadataIndex.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Map the index file in memory.
+     * If the file not exists or is not valid it will be created from scratch.
+     *
+     * @param file the file
+     * @return the mapped buffer
+     * @throws IOException if cannot map
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        // Open the file
+        int size = ScMetadataIndex.HEADER_SIZE +
+                ScMetadataIndex.CAPACITY * ScMetadataIndex.RECORD_SIZE;
+        RandomAccessFile random = new RandomAccessFile(file, "rw");
+        try {
+            // Check the header
+            boolean valid = random.length() == size &&
+                    random.readInt() == ScMetadataIndex.MAGIC &&
+                    random.readInt() == ScMetadataIndex.VERSION &&
+                    random.readInt() == ScMetadataIndex.CAPACITY;
+
+            // Reset if not valid
+            if (!valid) {
+                random.setLength(0);
+                random.setLength(size);
+                random.seek(0);
+                random.writeInt(ScMetadataIndex.MAGIC);
+                random.writeInt(ScMetadataIndex.VERSION);
+                random.writeInt(ScMetadataIndex.CAPACITY);
+            }
+
+            // Map, the mapping stay valid after the file is closed
+            return random.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        } finally {
+            random.close();
+        }
+    }
+
+    /**
+     * Map the index file if not yet done.
+     * NOTE that this method is blocking.
+     *
+     * @return false if the index is disabled
+     */
+    private boolean ensureMapped() {
+        // Check if already tried
+        if (this.mMapped)
+            return this.mBuffer != null;
+        this.mMapped = true;
+
+        try {
+            File file = new File(this.mContext.getCacheDir(), ScMetadataIndex.FILE_NAME);
+            this.mBuffer = ScMetadataIndex.map(file);
+
+        } catch (IOException ex) {
+            // Print the error on the stack, the index will be disabled
+            ex.printStackTrace();
+            this.mBuffer = null;
+        }
+        return this.mBuffer != null;
+    }
+
+    /**
+     * Calculate the key of the source.
+     * The key is a 64 bit FNV-1a hash of the URI mixed with the file size and the
+     * last modified time when the source is a local file.
+     *
+     * @param source the media path
+     * @return the key, never zero
+     */
+    private static long getKey(String source) {
+        // Hash the URI
+        long hash = 0xcbf29ce484222325L;
+        for (int index = 0; index < source.length(); index++) {
+            hash ^= source.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+
+        // Mix the file attributes if local
+        Uri uri = Uri.parse(source);
+        if (uri.getScheme() == null || "file".equals(uri.getScheme())) {
+            File file = new File(uri.getPath());
+            hash ^= file.length();
+            hash *= 0x100000001b3L;
+            hash ^= file.lastModified();
+            hash *= 0x100000001b3L;
+        }
+
+        // The zero is reserved for the empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Calculate the record checksum
+     *
+     * @param key    the key
+     * @param record the record
+     * @return the checksum
+     */
+    private static int getChecksum(long key, Record record) {
+        int checksum = ScMetadataIndex.MAGIC ^ (int) (key ^ (key >>> 32));
+        checksum = checksum * 31 + record.duration;
+        checksum = checksum * 31 + record.sampleRate;
+        checksum = checksum * 31 + record.channels;
+        checksum = checksum * 31 + record.position;
+        return checksum;
+    }
+
+    /**
+     * Get the slot offset inside the file
+     *
+     * @param slot the slot index
+     * @return the offset in bytes
+     */
+    private static int getOffset(int slot) {
+        return ScMetadataIndex.HEADER_SIZE + slot * ScMetadataIndex.RECORD_SIZE;
+    }
+
+    /**
+     * Read a record checking its integrity
+     *
+     * @param offset the record offset
+     * @param key    the expected key
+     * @return the record or null if not valid
+     */
+    private Record read(int offset, long key) {
+        // Fill
+        Record record = new Record();
+        record.duration = this.mBuffer.getInt(offset + ScMetadataIndex.OFFSET_DURATION);
+        record.sampleRate = this.mBuffer.getInt(offset + ScMetadataIndex.OFFSET_SAMPLE_RATE);
+        record.channels = this.mBuffer.getInt(offset + ScMetadataIndex.OFFSET_CHANNELS);
+        record.position = this.mBuffer.getInt(offset + ScMetadataIndex.OFFSET_POSITION);
+
+        // Check
+        int checksum = this.mBuffer.getInt(offset + ScMetadataIndex.OFFSET_CHECKSUM);
+        return checksum == ScMetadataIndex.getChecksum(key, record) ? record : null;
+    }
+
+    /**
+     * Write a record.
+     * The checksum is written as the last field so if the process die in the middle
+     * the record will be considered not valid.
+     *
+     * @param offset the record offset
+     * @param key    the key
+     * @param record the record
+     */
+    private void write(int offset, long key, Record record) {
+        this.mBuffer.putLong(offset + ScMetadataIndex.OFFSET_KEY, key);
+        this.mBuffer.putInt(offset + ScMetadataIndex.OFFSET_DURATION, record.duration);
+        this.mBuffer.putInt(offset + ScMetadataIndex.OFFSET_SAMPLE_RATE, record.sampleRate);
+        this.mBuffer.putInt(offset + ScMetadataIndex.OFFSET_CHANNELS, record.channels);
+        this.mBuffer.putInt(offset + ScMetadataIndex.OFFSET_POSITION, record.position);
+        this.mBuffer.putInt(offset + ScMetadataIndex.OFFSET_CHECKSUM,
+                ScMetadataIndex.getChecksum(key, record));
+    }
+
+    /**
+     * Find the slot offset of the key
+     *
+     * @param key    the key
+     * @param insert if true return the first free slot when the key is not found
+     * @return the offset or -1 if not found
+     */
+    private int findOffset(long key, boolean insert) {
+        // Linear probing starting from the home slot
+        int home = (int) ((key >>> 1) % ScMetadataIndex.CAPACITY);
+        int free = -1;
+
+        for (int probe = 0; probe < ScMetadataIndex.MAX_PROBES; probe++) {
+            int offset = ScMetadataIndex.getOffset((home + probe) % ScMetadataIndex.CAPACITY);
+            long current = this.mBuffer.getLong(offset + ScMetadataIndex.OFFSET_KEY);
+
+            // Found
+            if (current == key)
+                return offset;
+
+            // Remember the first free slot
+            if (current == 0 && free == -1)
+                free = offset;
+        }
+
+        // Not found, if inserting and the table is crowded replace the home slot
+        if (!insert)
+            return -1;
+        return free != -1 ? free : ScMetadataIndex.getOffset(home);
+    }
+
+
+    /**
+     * Write the last playback position of an indexed source
+     *
+     * @param source   the media path
+     * @param position the position in milliseconds
+     */
+    private synchronized void writePosition(String source, int position) {
+        // Check for empty values
+        if (!this.ensureMapped())
+            return;
+
+        // Find the record
+        long key = ScMetadataIndex.getKey(source);
+        int offset = this.findOffset(key, false);
+        Record record = offset == -1 ? null : this.read(offset, key);
+
+        // Update
+        if (record != null && record.position != position) {
+            record.position = position;
+            this.write(offset, key, record);
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Find the source metadata.
+     * NOTE that this method is blocking and must be called on a worker.
+     *
+     * @param source the media path
+     * @return the record or null if not known
+     */
+    synchronized Record find(String source) {
+        // Check for empty values
+        if (source == null || !this.ensureMapped())
+            return null;
+
+        // Search
+        long key = ScMetadataIndex.getKey(source);
+        int offset = this.findOffset(key, false);
+        return offset == -1 ? null : this.read(offset, key);
+    }
+
+    /**
+     * Store the source media info keeping the last position.
+     * NOTE that this method is blocking and must be called on a worker.
+     *
+     * @param source     the media path
+     * @param duration   the duration in milliseconds
+     * @param sampleRate the sample rate in Hertz
+     * @param channels   the channels count
+     * @return the stored record
+     */
+    synchronized Record putMedia(String source, int duration, int sampleRate, int channels) {
+        // Check for empty values
+        Record record = new Record();
+        record.duration = duration;
+        record.sampleRate = sampleRate;
+        record.channels = channels;
+        if (source == null || !this.ensureMapped())
+            return record;
+
+        // Find the slot and the previous values
+        long key = ScMetadataIndex.getKey(source);
+        int offset = this.findOffset(key, true);
+        Record previous = this.read(offset, key);
+        if (previous != null)
+            record.position = previous.position;
+
+        // Update
+        this.write(offset, key, record);
+        return record;
+    }
+
+    /**
+     * Store the last playback position of the source.
+     * The position will be stored only if the source is already indexed.
+     * The writing is done on the index thread so can be called from the main thread.
+     *
+     * @param source   the media path
+     * @param position the position in milliseconds
+     */
+    void putPosition(final String source, final int position) {
+        // Check for empty values
+        if (source == null)
+            return;
+
+        this.mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                writePosition(source, position);
+            }
+        });
+    }
+
+}
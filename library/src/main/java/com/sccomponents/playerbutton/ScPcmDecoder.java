@@ -0,0 +1,291 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+
+/**
+ * Decode the first audio track of a media to 16 bit PCM.
+ * Wrap the platform extractor and codec and give back the decoded chunks one by one
+ * without copying them: every chunk is a view of the codec output buffer and is valid
+ * only until the next read. The views are created once per output buffer and reused, so
+ * no object is created while reading.
+ * NOTE that this class is blocking so must be used on a worker and that is available
+ * only from JELLY_BEAN.
+ */
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class ScPcmDecoder {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final long DEQUEUE_TIMEOUT = 10000; // Microseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private final MediaExtractor mExtractor;
+    private final MediaCodec.BufferInfo mInfo;
+    private Closeable mDataSource = null;
+    private MediaCodec mCodec = null;
+
+    private ByteBuffer[] mInputs = null;
+    private ByteBuffer[] mOutputs = null;
+    private ShortBuffer[] mViews = null;
+    private int mOutput = -1;
+    private boolean mInputDone = false;
+    private boolean mOutputDone = false;
+
+    private long mDuration = 0;
+    private int mSampleRate = 0;
+    private int mChannels = 0;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    /**
+     * Open the media and start the decoder
+     *
+     * @param context the context
+     * @param source  the media path
+     * @throws IOException if the media cannot be read or not contain any audio track
+     */
+    @SuppressWarnings("deprecation")
+    ScPcmDecoder(Context context, String source) throws IOException {
+        this.mExtractor = new MediaExtractor();
+        this.mInfo = new MediaCodec.BufferInfo();
+
+        try {
+            // Find the first audio track
+            this.mDataSource = ScHttpCache.setDataSource(this.mExtractor, context, source);
+            MediaFormat format = null;
+            String mime = null;
+            for (int index = 0; index < this.mExtractor.getTrackCount(); index++) {
+                MediaFormat track = this.mExtractor.getTrackFormat(index);
+                mime = track.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    this.mExtractor.selectTrack(index);
+                    format = track;
+                    break;
+                }
+            }
+
+            // Check for a valid track
+            if (format == null)
+                throw new IOException("No audio track found");
+
+            // Holders
+            if (format.containsKey(MediaFormat.KEY_DURATION))
+                this.mDuration = format.getLong(MediaFormat.KEY_DURATION);
+            this.mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            this.mChannels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+            // Start the decoder
+            this.mCodec = MediaCodec.createDecoderByType(mime);
+            this.mCodec.configure(format, null, null, 0);
+            this.mCodec.start();
+            this.mInputs = this.mCodec.getInputBuffers();
+            this.setOutputs(this.mCodec.getOutputBuffers());
+
+        } catch (IOException | RuntimeException ex) {
+            // Release and propagate
+            this.release();
+            throw ex;
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Feed the decoder with the next compressed sample if possible
+     */
+    private void feed() {
+        // Check if have something to feed
+        if (this.mInputDone)
+            return;
+
+        int input = this.mCodec.dequeueInputBuffer(ScPcmDecoder.DEQUEUE_TIMEOUT);
+        if (input < 0)
+            return;
+
+        int read = this.mExtractor.readSampleData(this.mInputs[input], 0);
+        if (read < 0) {
+            this.mCodec.queueInputBuffer(
+                    input, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            this.mInputDone = true;
+
+        } else {
+            this.mCodec.queueInputBuffer(
+                    input, 0, read, this.mExtractor.getSampleTime(), 0);
+            this.mExtractor.advance();
+        }
+    }
+
+    /**
+     * Store the codec output buffers, the views will be created on the first use
+     *
+     * @param outputs the buffers
+     */
+    private void setOutputs(ByteBuffer[] outputs) {
+        this.mOutputs = outputs;
+        this.mViews = new ShortBuffer[outputs.length];
+    }
+
+    /**
+     * Get the 16 bit view of the whole output buffer
+     *
+     * @param index the buffer index
+     * @return the view
+     */
+    private ShortBuffer getView(int index) {
+        if (this.mViews[index] == null) {
+            ByteBuffer whole = this.mOutputs[index].duplicate();
+            whole.clear();
+            this.mViews[index] = whole.order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+        return this.mViews[index];
+    }
+
+    /**
+     * Give back the last read chunk to the decoder
+     */
+    private void releaseOutput() {
+        if (this.mOutput >= 0) {
+            this.mCodec.releaseOutputBuffer(this.mOutput, false);
+            this.mOutput = -1;
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Decode the next chunk.
+     * The returned samples are interleaved by channel and valid until the next call.
+     *
+     * @return the samples or null at the end of the media
+     */
+    @SuppressWarnings("deprecation")
+    ShortBuffer read() {
+        // Give back the previous chunk
+        this.releaseOutput();
+
+        while (!this.mOutputDone) {
+            // Feed the decoder
+            this.feed();
+
+            // Read the PCM
+            int output = this.mCodec.dequeueOutputBuffer(this.mInfo, ScPcmDecoder.DEQUEUE_TIMEOUT);
+            if (output >= 0) {
+                // Check for the end
+                if ((this.mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    this.mOutputDone = true;
+
+                // Get the 16 bit samples
+                this.mOutput = output;
+                ShortBuffer view = this.getView(output);
+                view.clear();
+                view.limit((this.mInfo.offset + this.mInfo.size) / 2);
+                view.position(this.mInfo.offset / 2);
+                return view;
+
+            } else if (output == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                this.setOutputs(this.mCodec.getOutputBuffers());
+
+            } else if (output == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat changed = this.mCodec.getOutputFormat();
+                this.mSampleRate = changed.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                this.mChannels = changed.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Move to a new position.
+     * The decoding will restart from the sync sample before the position.
+     *
+     * @param time the position in microseconds
+     */
+    void seekTo(long time) {
+        this.releaseOutput();
+        this.mExtractor.seekTo(time, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        this.mCodec.flush();
+        this.mInputDone = false;
+        this.mOutputDone = false;
+    }
+
+    /**
+     * Release the decoder and the extractor
+     */
+    void release() {
+        if (this.mCodec != null) {
+            try {
+                this.mCodec.stop();
+            } catch (Exception ex) {
+                // Already stopped
+            }
+            this.mCodec.release();
+            this.mCodec = null;
+        }
+        this.mExtractor.release();
+        ScHttpCache.closeDataSource(this.mDataSource);
+        this.mDataSource = null;
+    }
+
+    /**
+     * Get the presentation time of the last read chunk
+     *
+     * @return the time in microseconds
+     */
+    long getPresentationTime() {
+        return this.mInfo.presentationTimeUs;
+    }
+
+    /**
+     * Get the media duration declared by the track
+     *
+     * @return the duration in microseconds or 0 if unknown
+     */
+    long getDuration() {
+        return this.mDuration;
+    }
+
+    /**
+     * Get the PCM sample rate.
+     * Can change after the first read.
+     *
+     * @return the sample rate in Hertz
+     */
+    int getSampleRate() {
+        return this.mSampleRate;
+    }
+
+    /**
+     * Get the PCM channels count.
+     * Can change after the first read.
+     *
+     * @return the channels count
+     */
+    int getChannels() {
+        return this.mChannels;
+    }
+
+}
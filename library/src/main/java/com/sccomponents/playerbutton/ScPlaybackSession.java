@@ -0,0 +1,1067 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The playback state of a media.
+ * Hold the source, the duration, the position and the media player outside the view so
+ * the playback can survive the view recycling. A session can be private of a single
+ * view or bound to a stable item id, in this case it is stored in a process wide
+ * registry and any view bound to the same id will re-attach to the same session.
+ * The session play a queue of sources, a single source is a queue of one item. While
+ * an item is playing the next one is prepared in background and chained to the
+ * current player so the items will be played back to back without gap.
+ * The short items can be played by the clip engine instead of the media player, the
+ * engine is chosen automatically by the item duration or forced by the engine type.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScPlaybackSession implements ScPlayerPool.Owner {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final long NO_ID = Long.MIN_VALUE;
+
+    static final int ENGINE_AUTO = 0;
+    static final int ENGINE_MEDIA_PLAYER = 1;
+    static final int ENGINE_CLIP = 2;
+    static final int ENGINE_STREAM = 3;
+
+    private static final int MAX_IDLE_SESSIONS = 512;
+    private static final int CLIP_AUTO_DURATION = 3000; // Milliseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static final LinkedHashMap<Long, ScPlaybackSession> mSessions =
+            new LinkedHashMap<Long, ScPlaybackSession>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, ScPlaybackSession> eldest) {
+                    // Check if exceeded
+                    if (this.size() <= ScPlaybackSession.MAX_IDLE_SESSIONS)
+                        return false;
+
+                    // Forget the least recently used not in use, the sessions in use are
+                    // skipped so the cap hold. The last one was just added so is kept.
+                    Iterator<ScPlaybackSession> iterator = this.values().iterator();
+                    for (int index = this.size() - 1; index > 0; index--) {
+                        ScPlaybackSession session = iterator.next();
+                        if (!session.isActive() && session.mCallback == null) {
+                            iterator.remove();
+                            break;
+                        }
+                    }
+                    return false;
+                }
+            };
+
+    private final long mId;
+
+    private MediaPlayer.OnPreparedListener mPreparedListener = null;
+    private MediaPlayer.OnErrorListener mErrorListener = null;
+    private MediaPlayer.OnCompletionListener mCompletionListener = null;
+    private MediaPlayer.OnSeekCompleteListener mSeekListener = null;
+    private MediaPlayer.OnPreparedListener mNextPreparedListener = null;
+    private MediaPlayer.OnErrorListener mNextErrorListener = null;
+    private ScAudioEngine.Listener mEngineListener = null;
+    private ScHttpCache.OnBufferingListener mBufferingListener = null;
+
+    private Context mContext = null;
+    private Callback mCallback = null;
+    private MediaPlayer mPlayer = null;
+    private boolean mPreparing = false;
+    private boolean mBuffering = false;
+    private boolean mSeeking = false;
+    private int mSeekPending = -1;
+    private long mPrepareStart = 0;
+    private MediaPlayer mNext = null;
+    private boolean mNextChained = false;
+    private ScAudioEngine mEngine = null;
+    private int mEngineType = ScPlaybackSession.ENGINE_AUTO;
+
+    private String[] mQueue = new String[0];
+    private int[] mDurations = new int[0];
+    private int mIndex = 0;
+    private int mPosition = 0;
+    private float mVolume = 1.0f;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScPlaybackSession(long id) {
+        // Holders
+        this.mId = id;
+    }
+
+    /**
+     * Create a new private session not stored in the registry
+     *
+     * @return the session
+     */
+    static ScPlaybackSession create() {
+        return new ScPlaybackSession(ScPlaybackSession.NO_ID);
+    }
+
+    /**
+     * Get the session bound to the item id creating it if needed
+     *
+     * @param id the stable item id
+     * @return the session
+     */
+    static ScPlaybackSession obtain(long id) {
+        ScPlaybackSession session = ScPlaybackSession.mSessions.get(id);
+        if (session == null) {
+            session = new ScPlaybackSession(id);
+            ScPlaybackSession.mSessions.put(id, session);
+        }
+        return session;
+    }
+
+    /**
+     * Stop and forget the session bound to the item id
+     *
+     * @param id the stable item id
+     */
+    static void release(long id) {
+        ScPlaybackSession session = ScPlaybackSession.mSessions.remove(id);
+        if (session != null)
+            session.stop();
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Setup the prepared media player and start to play
+     */
+    private void onPlayerPrepared() {
+        // Settings
+        this.mPreparing = false;
+        this.mPlayer.setOnSeekCompleteListener(this.mSeekListener);
+        this.seekPlayer(this.mPosition);
+        this.mPlayer.setLooping(false);
+        this.mPlayer.setVolume(this.mVolume, this.mVolume);
+        this.mPlayer.setOnCompletionListener(this.mCompletionListener);
+        this.storeDuration(this.mPlayer.getDuration());
+
+        // Event
+        ScPlayerMetrics.recordPrepareTime(this.mPrepareStart);
+        if (this.mCallback != null)
+            this.mCallback.onSessionPrepared(this.mPlayer);
+
+        // Play
+        this.mPlayer.start();
+        this.prepareNext();
+
+        // Event
+        if (this.mCallback != null)
+            this.mCallback.onSessionStarted(this.mPlayer);
+    }
+
+    /**
+     * Start to play with the prepared engine
+     */
+    private void onEnginePrepared() {
+        // Settings
+        this.mPreparing = false;
+        this.mEngine.setVolume(this.mVolume);
+        this.storeDuration(this.mEngine.getDuration());
+
+        // Event
+        ScPlayerMetrics.recordPrepareTime(this.mPrepareStart);
+        if (this.mCallback != null)
+            this.mCallback.onSessionPrepared(null);
+
+        // Play
+        this.mEngine.start(this.mPosition);
+
+        // Event
+        if (this.mCallback != null)
+            this.mCallback.onSessionStarted(null);
+    }
+
+    /**
+     * Manage the engine error.
+     * If the engine cannot play the media the media player will be used.
+     *
+     * @param what  the error type
+     * @param extra the error extra code
+     */
+    private void onEngineError(int what, int extra) {
+        // Fallback
+        if (this.mPreparing && what == MediaPlayer.MEDIA_ERROR_UNSUPPORTED) {
+            this.mEngine.release();
+            this.mEngine = null;
+            ScPlayerMetrics.onEngineReleased();
+            this.prepareMediaPlayer();
+            return;
+        }
+
+        // Release all
+        this.onPlayerError(what, extra);
+    }
+
+    /**
+     * Manage the media player error
+     *
+     * @param what  the error type
+     * @param extra the error extra code
+     */
+    private void onPlayerError(int what, int extra) {
+        // Release all
+        this.releasePlayer();
+
+        // Event
+        if (this.mCallback != null)
+            this.mCallback.onSessionError(what, extra);
+    }
+
+    /**
+     * Manage the end of the media
+     */
+    private void onPlayerCompletion() {
+        // Next time start the item from the beginning
+        this.mPosition = 0;
+        this.savePosition();
+
+        // The next player is already playing
+        if (this.mNext != null && this.mNextChained) {
+            // Swap
+            MediaPlayer previous = this.mPlayer;
+            this.mPlayer = this.mNext;
+            this.mNext = null;
+            this.mNextChained = false;
+            this.mPlayer.setOnErrorListener(this.mErrorListener);
+            this.mPlayer.setOnSeekCompleteListener(this.mSeekListener);
+            this.mSeeking = false;
+            this.mSeekPending = -1;
+            ScPlayerPool.getInstance().recycle(previous);
+
+            // Advance
+            this.mIndex++;
+            this.storeDuration(this.mPlayer.getDuration());
+            this.prepareNext();
+
+            // Event
+            if (this.mCallback != null) {
+                this.mCallback.onSessionAdvanced(this.mIndex);
+                this.mCallback.onSessionStarted(this.mPlayer);
+            }
+            return;
+        }
+
+        // Release all
+        this.releasePlayer();
+
+        // Prepare the next item from scratch
+        if (this.mIndex + 1 < this.mQueue.length) {
+            // Advance
+            this.mIndex++;
+            if (this.mCallback != null)
+                this.mCallback.onSessionAdvanced(this.mIndex);
+
+            // Restart
+            ScPlayerPool.getInstance().requestPlayback(this);
+            this.preparePlayer();
+            return;
+        }
+
+        // End of the queue, next time start from the first item
+        this.mIndex = 0;
+
+        // Event
+        if (this.mCallback != null)
+            this.mCallback.onSessionStopped(true);
+    }
+
+    /**
+     * Chain the prepared next player to the current one
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void onNextPrepared() {
+        // Settings
+        this.mNext.setLooping(false);
+        this.mNext.setVolume(this.mVolume, this.mVolume);
+        this.mNext.setOnCompletionListener(this.mCompletionListener);
+
+        try {
+            // Chain, the next player will start when the current one complete
+            this.mPlayer.setNextMediaPlayer(this.mNext);
+            this.mNextChained = true;
+
+        } catch (Exception ex) {
+            // Print the error on the stack and release
+            ex.printStackTrace();
+            this.releaseNext();
+        }
+    }
+
+    /**
+     * Create the player and engine listeners.
+     * The listeners are created only on the first play so the sessions that never play
+     * hold just the queue and the durations.
+     */
+    private void createListeners() {
+        this.mPreparedListener = new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer player) {
+                // Check if still the current player
+                if (player == mPlayer && mPreparing)
+                    onPlayerPrepared();
+            }
+        };
+        this.mErrorListener = new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer player, int what, int extra) {
+                // Check if still the current player
+                if (player == mPlayer)
+                    onPlayerError(what, extra);
+                return true;
+            }
+        };
+        this.mCompletionListener = new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer player) {
+                // Check if still the current player
+                if (player == mPlayer)
+                    onPlayerCompletion();
+            }
+        };
+        this.mSeekListener = new MediaPlayer.OnSeekCompleteListener() {
+            @Override
+            public void onSeekComplete(MediaPlayer player) {
+                // Check if still the current player
+                if (player == mPlayer)
+                    onPlayerSeekComplete();
+            }
+        };
+        this.mNextPreparedListener = new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer player) {
+                // Check if still the next player
+                if (player == mNext)
+                    onNextPrepared();
+            }
+        };
+        this.mNextErrorListener = new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer player, int what, int extra) {
+                // The next item will be prepared again when reached
+                if (player == mNext)
+                    releaseNext();
+                return true;
+            }
+        };
+        this.mEngineListener = new ScAudioEngine.Listener() {
+            @Override
+            public void onEnginePrepared(ScAudioEngine engine) {
+                // Check if still the current engine
+                if (engine == mEngine && mPreparing)
+                    ScPlaybackSession.this.onEnginePrepared();
+            }
+
+            @Override
+            public void onEngineCompletion(ScAudioEngine engine) {
+                // Check if still the current engine
+                if (engine == mEngine)
+                    onPlayerCompletion();
+            }
+
+            @Override
+            public void onEngineError(ScAudioEngine engine, int what, int extra) {
+                // Check if still the current engine
+                if (engine == mEngine)
+                    ScPlaybackSession.this.onEngineError(what, extra);
+            }
+        };
+        this.mBufferingListener = new ScHttpCache.OnBufferingListener() {
+            @Override
+            public void onBuffering(boolean buffering) {
+                // Check if still playing
+                if (mPlayer != null)
+                    setBuffering(buffering);
+            }
+        };
+    }
+
+    /**
+     * Create the engine to play the current item
+     *
+     * @return the engine or null if the media player must be used
+     */
+    private ScAudioEngine createEngine() {
+        // Check if the platform can decode
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return null;
+
+        // By the type
+        if (this.mEngineType == ScPlaybackSession.ENGINE_STREAM)
+            return new ScStreamEngine();
+
+        int duration = this.getItemDuration();
+        boolean clip = this.mEngineType == ScPlaybackSession.ENGINE_CLIP ||
+                (this.mEngineType == ScPlaybackSession.ENGINE_AUTO &&
+                        duration > 0 && duration <= ScPlaybackSession.CLIP_AUTO_DURATION);
+        return clip ? new ScClipEngine() : null;
+    }
+
+    /**
+     * Start to prepare the current item with the engine or with the media player
+     */
+    private void preparePlayer() {
+        // The prepare time include the fallback on the media player
+        this.mPrepareStart = ScPlayerMetrics.now();
+
+        // Engine
+        ScAudioEngine engine = this.createEngine();
+        if (engine != null) {
+            ScPlayerMetrics.onEngineCreated();
+            this.mPreparing = true;
+            this.mEngine = engine;
+            this.mEngine.prepare(this.mContext, this.getSource(), this.mEngineListener);
+            return;
+        }
+
+        // Media player
+        this.prepareMediaPlayer();
+    }
+
+    /**
+     * Take a media player and start to prepare the current item.
+     * On failure the session error will be notified.
+     */
+    private void prepareMediaPlayer() {
+        try {
+            // Player, the play will start when prepared
+            this.mPreparing = true;
+            this.mPlayer = ScPlayerPool.getInstance().acquire(
+                    this.mContext, this.getSource(), this.mBufferingListener,
+                    this.mPreparedListener, this.mErrorListener);
+
+        } catch (Exception ex) {
+            // Print the error on the stack and release
+            ex.printStackTrace();
+            this.mPreparing = false;
+            ScPlayerPool.getInstance().abandonPlayback(this);
+
+            // Event
+            if (this.mCallback != null)
+                this.mCallback.onSessionError(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+        }
+    }
+
+    /**
+     * Start to prepare the next item in background.
+     * Chaining the players need at least JELLY_BEAN, on the older devices the next
+     * item will be prepared when the current one complete.
+     */
+    private void prepareNext() {
+        // Check if have a next item
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN ||
+                this.mPlayer == null || this.mIndex + 1 >= this.mQueue.length)
+            return;
+
+        try {
+            // Player, will be chained when prepared
+            this.mNextChained = false;
+            this.mNext = ScPlayerPool.getInstance().acquire(
+                    this.mContext, this.mQueue[this.mIndex + 1], this.mBufferingListener,
+                    this.mNextPreparedListener, this.mNextErrorListener);
+
+        } catch (Exception ex) {
+            // Print the error on the stack, will be prepared again when reached
+            ex.printStackTrace();
+            this.mNext = null;
+        }
+    }
+
+    /**
+     * Give back the next player to the pool
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void releaseNext() {
+        // Check for empty values
+        if (this.mNext == null)
+            return;
+
+        // Unchain
+        if (this.mNextChained && this.mPlayer != null) {
+            try {
+                this.mPlayer.setNextMediaPlayer(null);
+            } catch (IllegalStateException ex) {
+                // The current player is in error state
+            }
+        }
+
+        // Give back
+        ScPlayerPool.getInstance().recycle(this.mNext);
+        this.mNext = null;
+        this.mNextChained = false;
+    }
+
+    /**
+     * Store the current item duration known by the player
+     *
+     * @param duration the duration in milliseconds
+     */
+    private void storeDuration(int duration) {
+        if (duration > 0 && this.mDurations[this.mIndex] <= 0)
+            this.mDurations[this.mIndex] = duration;
+    }
+
+    /**
+     * Get the duration of the items before the current one
+     *
+     * @return the duration in milliseconds, the unknown durations are ignored
+     */
+    int getOffset() {
+        int offset = 0;
+        for (int index = 0; index < this.mIndex; index++)
+            offset += Math.max(0, this.mDurations[index]);
+        return offset;
+    }
+
+    /**
+     * Release the engine or give back the player to the pool and leave the
+     * exclusive playback
+     */
+    private void releasePlayer() {
+        // The next player is not needed anymore
+        this.releaseNext();
+
+        if (this.mEngine != null) {
+            // The engine release also abort the preparing
+            this.mEngine.release();
+            ScPlayerMetrics.onEngineReleased();
+
+        } else {
+            // Stop if the player was started
+            if (!this.mPreparing) {
+                try {
+                    this.mPlayer.stop();
+                } catch (IllegalStateException ex) {
+                    // The player is in error state, the reset will recover it
+                }
+            }
+
+            // Give back, the reset will also abort the preparing
+            ScPlayerPool.getInstance().recycle(this.mPlayer);
+        }
+        ScPlayerPool.getInstance().abandonPlayback(this);
+
+        // To null
+        this.mPlayer = null;
+        this.mEngine = null;
+        this.mPreparing = false;
+        this.mSeeking = false;
+        this.mSeekPending = -1;
+        this.setBuffering(false);
+    }
+
+    /**
+     * Seek the player.
+     * While a seek is running the new requests are coalesced and only the last one will
+     * be done when the running is complete.
+     *
+     * @param position the position in milliseconds
+     */
+    private void seekPlayer(int position) {
+        // Check if already seeking
+        if (this.mSeeking) {
+            this.mSeekPending = position;
+            return;
+        }
+
+        this.mSeeking = true;
+        this.mPlayer.seekTo(position);
+    }
+
+    /**
+     * Do the last coalesced seek if any
+     */
+    private void onPlayerSeekComplete() {
+        this.mSeeking = false;
+        if (this.mSeekPending >= 0) {
+            int position = this.mSeekPending;
+            this.mSeekPending = -1;
+            this.seekPlayer(position);
+        }
+    }
+
+    /**
+     * Store the buffering state and notify if changed
+     *
+     * @param buffering true if waiting for the network
+     */
+    private void setBuffering(boolean buffering) {
+        // Check if value is changed
+        if (this.mBuffering == buffering)
+            return;
+
+        // Store and notify
+        this.mBuffering = buffering;
+        if (this.mCallback != null)
+            this.mCallback.onSessionBuffering(buffering);
+    }
+
+    /**
+     * Store the current position inside the memory cache and the persistent metadata
+     * index, the index is written in background
+     */
+    private void savePosition() {
+        ScDurationProbe.getInstance().putPosition(this.getSource(), this.mPosition);
+        if (this.mContext != null)
+            ScMetadataIndex.getInstance(this.mContext).putPosition(this.getSource(), this.mPosition);
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Attach the view to the session.
+     * Only one view per time can be attached.
+     *
+     * @param callback the view callback
+     */
+    void attach(Callback callback) {
+        this.mCallback = callback;
+    }
+
+    /**
+     * Detach the view from the session.
+     * The playback will continue.
+     *
+     * @param callback the view callback
+     */
+    void detach(Callback callback) {
+        if (this.mCallback == callback)
+            this.mCallback = null;
+    }
+
+    /**
+     * Start to prepare the media, the play will start when prepared
+     *
+     * @param context the context
+     */
+    void play(Context context) {
+        // Stop if active
+        this.stop();
+        if (this.mQueue.length == 0)
+            return;
+
+        // Take the exclusive playback stopping the other sessions
+        this.mContext = context.getApplicationContext();
+        if (this.mPreparedListener == null)
+            this.createListeners();
+        ScPlayerPool.getInstance().requestPlayback(this);
+        this.preparePlayer();
+    }
+
+    /**
+     * Stop to play or cancel the preparing
+     */
+    void stop() {
+        // Check for empty values
+        if (!this.isActive())
+            return;
+
+        // Remember where the play was stopped
+        boolean started = !this.mPreparing;
+        if (started) {
+            this.mPosition = this.getItemPosition();
+            this.savePosition();
+        }
+
+        // Release
+        this.releasePlayer();
+
+        // Event
+        if (this.mCallback != null)
+            this.mCallback.onSessionStopped(started);
+    }
+
+    @Override
+    public void onPlaybackPreempted() {
+        this.stop();
+    }
+
+
+    // ***************************************************************************************
+    // Public properties
+
+    /**
+     * Get the item id
+     *
+     * @return the id or NO_ID if private
+     */
+    long getId() {
+        return this.mId;
+    }
+
+    /**
+     * Check if this is the session currently registered for the item id.
+     * A released or evicted session is not registered anymore even if some view is
+     * still attached to it.
+     *
+     * @param id the stable item id
+     * @return true if registered for the id
+     */
+    boolean isBoundTo(long id) {
+        return id != ScPlaybackSession.NO_ID && this.mId == id &&
+                ScPlaybackSession.mSessions.get(id) == this;
+    }
+
+    /**
+     * Get the current media player
+     *
+     * @return the player or null if not active or if playing with an engine
+     */
+    MediaPlayer getPlayer() {
+        return this.mPlayer;
+    }
+
+    /**
+     * Get the audio session of the current player or engine
+     *
+     * @return the session id or 0 if not active
+     */
+    int getAudioSessionId() {
+        if (this.mEngine != null)
+            return this.mEngine.getAudioSessionId();
+        return this.mPlayer == null ? 0 : this.mPlayer.getAudioSessionId();
+    }
+
+    /**
+     * Check if there is a player or an engine preparing or playing
+     *
+     * @return true if active
+     */
+    boolean isActive() {
+        return this.mPlayer != null || this.mEngine != null;
+    }
+
+    /**
+     * Check if the player is preparing
+     *
+     * @return true if preparing
+     */
+    boolean isPreparing() {
+        return this.mPreparing;
+    }
+
+    /**
+     * Check if the player is playing
+     *
+     * @return true if playing
+     */
+    boolean isPlaying() {
+        if (this.mPreparing)
+            return false;
+        if (this.mEngine != null)
+            return this.mEngine.isPlaying();
+        return this.mPlayer != null && this.mPlayer.isPlaying();
+    }
+
+    /**
+     * Check if the current engine can feed the wave form directly from its PCM
+     *
+     * @return false if the visualizer must be used
+     */
+    boolean canFeedWave() {
+        return !this.mPreparing && this.mEngine != null && this.mEngine.canFeedWave();
+    }
+
+    /**
+     * Let the engine feed the wave form directly from its PCM.
+     * The capture will be fed only while the current engine is playing.
+     *
+     * @param capture the capture to feed
+     * @return false if the current engine cannot feed, the visualizer must be used
+     */
+    boolean feedWave(ScWaveCapture capture) {
+        return !this.mPreparing && this.mEngine != null &&
+                this.mEngine.setWaveCapture(capture);
+    }
+
+    /**
+     * Get the engine type
+     *
+     * @return the type
+     */
+    int getEngine() {
+        return this.mEngineType;
+    }
+
+    /**
+     * Set the engine type.
+     * The new type will be used from the next play.
+     *
+     * @param value the type
+     */
+    void setEngine(int value) {
+        this.mEngineType = value;
+    }
+
+    /**
+     * Get the current item source
+     *
+     * @return the media path or null if the queue is empty
+     */
+    String getSource() {
+        return this.mQueue.length == 0 ? null : this.mQueue[this.mIndex];
+    }
+
+    /**
+     * Set a single source.
+     * If changed the playback will be stopped and the media info reset.
+     *
+     * @param value the media path
+     */
+    void setSource(String value) {
+        this.setQueue(value == null ? new String[0] : new String[]{value});
+    }
+
+    /**
+     * Get the queue
+     *
+     * @return a copy of the sources
+     */
+    String[] getQueue() {
+        return this.mQueue.clone();
+    }
+
+    /**
+     * Set the queue.
+     * If changed the playback will be stopped and the media info reset.
+     *
+     * @param value the sources
+     */
+    void setQueue(String[] value) {
+        if (!Arrays.equals(this.mQueue, value)) {
+            this.stop();
+            this.mQueue = value.clone();
+            this.mDurations = new int[value.length];
+            Arrays.fill(this.mDurations, ScDurationProbe.UNKNOWN);
+            this.mIndex = 0;
+            this.mPosition = 0;
+        }
+    }
+
+    /**
+     * Get the current item index
+     *
+     * @return the index
+     */
+    int getIndex() {
+        return this.mIndex;
+    }
+
+    /**
+     * Move to an item.
+     * If playing the playback will be stopped.
+     *
+     * @param value the index
+     */
+    void setIndex(int value) {
+        if (value >= 0 && value < this.mQueue.length && value != this.mIndex) {
+            this.stop();
+            this.mIndex = value;
+            this.mPosition = 0;
+        }
+    }
+
+    /**
+     * Get the whole queue duration
+     *
+     * @return the duration in milliseconds or UNKNOWN if some item is not known
+     */
+    int getDuration() {
+        int duration = 0;
+        for (int item : this.mDurations) {
+            if (item == ScDurationProbe.UNKNOWN)
+                return ScDurationProbe.UNKNOWN;
+            duration += item;
+        }
+        return duration;
+    }
+
+    /**
+     * Get the current item duration
+     *
+     * @return the duration in milliseconds or UNKNOWN
+     */
+    int getItemDuration() {
+        return this.mQueue.length == 0 ? 0 : this.mDurations[this.mIndex];
+    }
+
+    /**
+     * Get an item duration
+     *
+     * @param index the item index
+     * @return the duration in milliseconds or UNKNOWN
+     */
+    int getItemDuration(int index) {
+        return this.mDurations[index];
+    }
+
+    /**
+     * Set the duration of all the items with the given source
+     *
+     * @param source the media path
+     * @param value  the duration in milliseconds
+     * @return true if the source is in the queue
+     */
+    boolean setDuration(String source, int value) {
+        boolean found = false;
+        for (int index = 0; index < this.mQueue.length; index++) {
+            if (this.mQueue[index].equals(source)) {
+                this.mDurations[index] = value;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the current item start position
+     *
+     * @return the position in milliseconds
+     */
+    int getPosition() {
+        return this.mPosition;
+    }
+
+    /**
+     * Set the current item start position.
+     * If playing the player will precisely seek to the new position.
+     *
+     * @param value the position in milliseconds
+     */
+    void setPosition(int value) {
+        this.seekTo(value, true);
+    }
+
+    /**
+     * Set the current item start position.
+     * If playing the player will seek to the new position, the media player seeks are
+     * coalesced while running and the engines replace the pending request.
+     *
+     * @param value   the position in milliseconds
+     * @param precise false for a fast seek to the nearest sync sample while scrubbing
+     */
+    void seekTo(int value, boolean precise) {
+        this.mPosition = value;
+        if (this.isPlaying()) {
+            if (this.mEngine != null)
+                this.mEngine.seekTo(value, precise);
+            else
+                this.seekPlayer(value);
+        }
+    }
+
+    /**
+     * Get the current item playing position
+     *
+     * @return the position in milliseconds
+     */
+    int getItemPosition() {
+        if (this.mPreparing)
+            return this.mPosition;
+        if (this.mEngine != null)
+            return this.mEngine.getCurrentPosition();
+        return this.mPlayer != null ? this.mPlayer.getCurrentPosition() : this.mPosition;
+    }
+
+    /**
+     * Get the playing position inside the whole queue
+     *
+     * @return the position in milliseconds
+     */
+    int getCurrentPosition() {
+        return this.getOffset() + this.getItemPosition();
+    }
+
+    /**
+     * Set the player volume
+     *
+     * @param value the volume
+     */
+    void setVolume(float value) {
+        this.mVolume = value;
+        if (this.mEngine != null)
+            this.mEngine.setVolume(value);
+        if (this.mPlayer != null && !this.mPreparing)
+            this.mPlayer.setVolume(value, value);
+        if (this.mNext != null && this.mNextChained)
+            this.mNext.setVolume(value, value);
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Notify the attached view
+     */
+    interface Callback {
+
+        /**
+         * When the player is ready to play
+         *
+         * @param player the player or null if playing with an engine
+         */
+        void onSessionPrepared(MediaPlayer player);
+
+        /**
+         * When the player start to play
+         *
+         * @param player the player or null if playing with an engine
+         */
+        void onSessionStarted(MediaPlayer player);
+
+        /**
+         * When the session move to the next queue item
+         *
+         * @param index the new item index
+         */
+        void onSessionAdvanced(int index);
+
+        /**
+         * When the play is stopped, completed or the preparing canceled
+         *
+         * @param started true if the player was started
+         */
+        void onSessionStopped(boolean started);
+
+        /**
+         * When the player fail
+         *
+         * @param what  the error type
+         * @param extra the error extra code
+         */
+        void onSessionError(int what, int extra);
+
+        /**
+         * When the playback of a remote media must wait for the network or resume
+         *
+         * @param buffering true if waiting
+         */
+        void onSessionBuffering(boolean buffering);
+
+    }
+
+}
@@ -1,33 +1,31 @@
 package com.sccomponents.playerbutton;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
-import android.graphics.drawable.Drawable;
 import android.media.MediaPlayer;
 import android.media.audiofx.Visualizer;
-import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
-import android.support.v4.content.ContextCompat;
-import android.support.v4.graphics.drawable.DrawableCompat;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 
 
 /**
@@ -39,47 +37,78 @@ public class ScPlayerButton extends View {
     // ***************************************************************************************
     // Constants
 
+    public static final int WAVE_STYLE_PATH = ScWaveRenderer.STYLE_PATH;
+    public static final int WAVE_STYLE_BARS = ScWaveRenderer.STYLE_BARS;
+    public static final int WAVE_STYLE_DOTS = ScWaveRenderer.STYLE_DOTS;
+    public static final int WAVE_STYLE_SPECTRUM = ScWaveRenderer.STYLE_SPECTRUM;
+
+    public static final int ENGINE_AUTO = ScPlaybackSession.ENGINE_AUTO;
+    public static final int ENGINE_MEDIA_PLAYER = ScPlaybackSession.ENGINE_MEDIA_PLAYER;
+    public static final int ENGINE_CLIP = ScPlaybackSession.ENGINE_CLIP;
+    public static final int ENGINE_STREAM = ScPlaybackSession.ENGINE_STREAM;
+
+    static final float VOLUME = 0.7f;
+
     private static final String BACKGROUND_COLOR = "#FCC81A";
     private static final String FOREGROUND_COLOR = "#FFFFFF";
-    private static final String PERMISSION = "RECORD_AUDIO";
+    private static final String PERMISSION = "android.permission.RECORD_AUDIO";
 
-    private static final int UPDATE_FREQUENCY = 10; // Hertz
+    private static final float CAPTURE_RATE = 10.0f; // Hertz
+    private static final float CAPTURE_RATE_SAVER = 5.0f; // Hertz
+    private static final int SEEK_INTERVAL = 100; // Milliseconds
     private static final float FONT_SIZE = 11.0f;
-    private static final float VOLUME = 0.7f;
 
 
     // ***************************************************************************************
     // Privates attributes
 
-    private String mSource = null;
     private int mColor = Color.WHITE;
     private float mFontSize = ScPlayerButton.FONT_SIZE;
     private float mVolume = ScPlayerButton.VOLUME;
+    private int mWaveStyle = ScPlayerButton.WAVE_STYLE_PATH;
+    private boolean mShowEnvelope = false;
+    private float mCaptureRate = ScPlayerButton.CAPTURE_RATE;
+    private float mCaptureRateSaver = ScPlayerButton.CAPTURE_RATE_SAVER;
+    private int mEngine = ScPlayerButton.ENGINE_AUTO;
 
 
     // ***************************************************************************************
     // Privates variable
 
-    private static Drawable mPlayIcon = null;
-    private static Drawable mStopIcon = null;
-
-    private MediaPlayer mPlayer = null;
-    private Visualizer mVisualizer = null;
+    private ScPlaybackSession mSession = null;
+    private ScWaveCapture mVisualizer = null;
 
-    private int mPosition = 0;
-    private int mMediaDuration = 0;
-    private byte[] mWaveToken = null;
+    private byte[] mEnvelope = null;
     private Rect mDrawingArea = null;
 
-    private ScheduledExecutorService mExecutor = null;
+    private boolean mUpdating = false;
+    private boolean mScrubbing = false;
+    private int mScrubPosition = -1;
+    private long mSeekTime = 0;
+    private boolean mSeekScheduled = false;
+    private Runnable mSeekRunnable = null;
+    private long mTapTime = 0;
+    private ScFrameClock.OnFrameListener mFrameListener = null;
     private GestureDetector mDetector = null;
     private OnEventListener mEventListener = null;
+    private ScDurationProbe.OnProbeListener mProbeListener = null;
+    private ScEnvelopeDecoder.OnEnvelopeListener mEnvelopeListener = null;
+    private ScPlaybackSession.Callback mSessionCallback = null;
+    private ScWaveCapture.OnEvictedListener mCaptureListener = null;
+    private ViewTreeObserver.OnScrollChangedListener mScrollListener = null;
+    private ViewTreeObserver.OnPreDrawListener mLayoutListener = null;
+
+    private int mPriority = ScPrepareScheduler.PRIORITY_DETACHED;
+    private int mWindowTop = 0;
+    private boolean mEnvelopeWaiting = false;
 
     // Temp variable
-    private Paint mTimePaint = null;
-    private Paint mWavePaint = null;
-    private Rect mGenericRect = null;
-    private Path mGenericPath = null;
+    private ScPlayerRenderer.Label mLabel = null;
+    private ScSpectrumAnalyzer mAnalyzer = null;
+    private int[] mWindowLocation = null;
+    private float mDownX = 0.0f;
+    private float mDownY = 0.0f;
+    private int mTouchSlop = 0;
 
 
     // ***************************************************************************************
@@ -138,7 +167,7 @@ public class ScPlayerButton extends View {
                 .obtainStyledAttributes(attrs, R.styleable.ScPlayerButton, defStyle, 0);
 
         // Read all attributes from xml and assign the value to linked variables
-        this.mSource = attrArray.getString(
+        String source = attrArray.getString(
                 R.styleable.ScPlayerButton_source);
         this.mColor = attrArray.getColor(
                 R.styleable.ScPlayerButton_color, Color.parseColor(ScPlayerButton.FOREGROUND_COLOR));
@@ -146,6 +175,16 @@ public class ScPlayerButton extends View {
                 R.styleable.ScPlayerButton_fontSize, this.dipToPixel(ScPlayerButton.FONT_SIZE));
         this.mVolume = attrArray.getFloat(
                 R.styleable.ScPlayerButton_volume, ScPlayerButton.VOLUME);
+        this.mWaveStyle = attrArray.getInt(
+                R.styleable.ScPlayerButton_waveStyle, ScPlayerButton.WAVE_STYLE_PATH);
+        this.mShowEnvelope = attrArray.getBoolean(
+                R.styleable.ScPlayerButton_showEnvelope, false);
+        this.mCaptureRate = attrArray.getFloat(
+                R.styleable.ScPlayerButton_captureRate, ScPlayerButton.CAPTURE_RATE);
+        this.mCaptureRateSaver = attrArray.getFloat(
+                R.styleable.ScPlayerButton_captureRateSaver, ScPlayerButton.CAPTURE_RATE_SAVER);
+        this.mEngine = attrArray.getInt(
+                R.styleable.ScPlayerButton_engine, ScPlayerButton.ENGINE_AUTO);
 
         // Recycle
         attrArray.recycle();
@@ -161,27 +200,171 @@ public class ScPlayerButton extends View {
         //--------------------------------------------------
         // INIT
 
-        this.mDetector = new GestureDetector(this.getContext(), new SingleTapConfirm());
-        this.mExecutor = Executors.newSingleThreadScheduledExecutor();
-        this.mMediaDuration = this.getMediaDuration(this.mSource);
+        // The gestures, the visuals and the media info tracking are created on first
+        // use so an idle component hold only its settings and the time label
+        this.mSessionCallback = new ScPlaybackSession.Callback() {
+            @Override
+            public void onSessionPrepared(MediaPlayer player) {
+                // Event
+                if (mEventListener instanceof OnPlaybackEventListener)
+                    ((OnPlaybackEventListener) mEventListener).onPrepared(player);
+            }
+
+            @Override
+            public void onSessionStarted(MediaPlayer player) {
+                // Metrics
+                ScPlayerMetrics.recordTapLatency(mTapTime);
+                mTapTime = 0;
+
+                // Show the playing state
+                startVisuals();
+                setSelected(true);
+                invalidate();
+
+                // Event
+                if (mEventListener != null)
+                    mEventListener.onStartPlay(player);
+            }
+
+            @Override
+            public void onSessionAdvanced(int index) {
+                // The envelope of the new item
+                decodeMediaEnvelope(mSession.getSource());
+                invalidate();
+            }
+
+            @Override
+            public void onSessionStopped(boolean started) {
+                // Release the button state
+                stopVisuals();
+                setSelected(false);
+                invalidate();
+
+                // Event
+                mTapTime = 0;
+                if (started && mEventListener != null)
+                    mEventListener.onStopPlay();
+                ScPlayerMetrics.report();
+            }
 
-        this.mTimePaint = new Paint();
-        this.mTimePaint.setAntiAlias(true);
-        this.mTimePaint.setTypeface(Typeface.DEFAULT);
+            @Override
+            public void onSessionError(int what, int extra) {
+                // Release the button state
+                stopVisuals();
+                setSelected(false);
+                invalidate();
 
-        this.mWavePaint = new Paint();
-        this.mWavePaint.setAntiAlias(true);
-        this.mWavePaint.setStrokeWidth(2.0f);
-        this.mWavePaint.setStyle(Paint.Style.STROKE);
+                // Event
+                mTapTime = 0;
+                if (mEventListener instanceof OnPlaybackEventListener)
+                    ((OnPlaybackEventListener) mEventListener).onError(what, extra);
+                ScPlayerMetrics.report();
+            }
 
-        this.mGenericRect = new Rect();
+            @Override
+            public void onSessionBuffering(boolean buffering) {
+                // Event
+                if (mEventListener instanceof OnPlaybackEventListener)
+                    ((OnPlaybackEventListener) mEventListener).onBuffering(buffering);
+            }
+        };
+
+        // Private session until bound to an item
+        this.mSession = ScPlaybackSession.create();
+        this.mSession.setVolume(this.mVolume);
+        this.mSession.setEngine(this.mEngine);
+        this.mSession.attach(this.mSessionCallback);
+        this.applyQueue(ScPlayerButton.toQueue(source));
+
+        // The paints and the icons are shared by the renderer
+        this.mLabel = new ScPlayerRenderer.Label();
         this.mDrawingArea = new Rect();
-        this.mGenericPath = new Path();
 
         this.setClickable(true);
         this.setSelected(false);
     }
 
+    /**
+     * Create the gesture detector and the scrubbing helpers.
+     * Called on the first touch.
+     */
+    private void initGestures() {
+        this.mDetector = new GestureDetector(this.getContext(), new SingleTapConfirm());
+        this.mTouchSlop = ViewConfiguration.get(this.getContext()).getScaledTouchSlop();
+        this.mSeekRunnable = new Runnable() {
+            @Override
+            public void run() {
+                seekScrub();
+            }
+        };
+    }
+
+    /**
+     * Create the periodic update and the visualizer listeners.
+     * Called on the first play.
+     */
+    private void initVisuals() {
+        this.mFrameListener = new ScFrameClock.OnFrameListener() {
+            @Override
+            public void onFrame() {
+                invalidate();
+            }
+        };
+        this.mCaptureListener = new ScWaveCapture.OnEvictedListener() {
+            @Override
+            public void onCaptureEvicted(ScWaveCapture capture) {
+                // Degrade to the periodic update of the time label
+                if (capture == mVisualizer) {
+                    mVisualizer = null;
+                    startUpdate();
+                }
+            }
+        };
+    }
+
+    /**
+     * Create the media info listeners and the window position tracking.
+     * Called on the first attach to the window.
+     */
+    private void initTracking() {
+        this.mProbeListener = new ScDurationProbe.OnProbeListener() {
+            @Override
+            public void onDurationProbed(String source, int duration, int position) {
+                // Check if the source is still in the queue
+                if (storeMediaInfo(source, duration, position))
+                    invalidate();
+            }
+        };
+        this.mEnvelopeListener = new ScEnvelopeDecoder.OnEnvelopeListener() {
+            @Override
+            public void onEnvelopeDecoded(String source, byte[] envelope) {
+                // Check if the source is still the same
+                if (ScPlayerButton.this.equals(mSession.getSource(), source)) {
+                    mEnvelope = envelope;
+                    mEnvelopeWaiting = false;
+                    invalidate();
+                }
+            }
+        };
+        this.mScrollListener = new ViewTreeObserver.OnScrollChangedListener() {
+            @Override
+            public void onScrollChanged() {
+                prioritizeMediaInfo();
+            }
+        };
+        this.mLayoutListener = new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                // The position is known only after the first layout
+                getViewTreeObserver().removeOnPreDrawListener(this);
+                prioritizeMediaInfo();
+                return true;
+            }
+        };
+
+        this.mWindowLocation = new int[2];
+    }
+
     /**
      * Convert Dip to Pixel using the current display metrics.
      *
@@ -196,85 +379,199 @@ public class ScPlayerButton extends View {
     }
 
     /**
-     * Retrieve the media duration in milliseconds
+     * Convert a single source to a queue
      *
      * @param source the media path
-     * @return the duration in milliseconds
-     */
-    private int getMediaDuration(String source) {
-        MediaPlayer player = null;
-        try {
-            // Try to get the media duration
-            player = MediaPlayer.create(this.getContext(), Uri.parse(source));
-            return player.getDuration();
-
-        } catch (Exception ex) {
-            // Print the error on the stack and return
-            ex.printStackTrace();
-            return 0;
-
-        } finally {
-            // Release the player
-            if (player != null)
-                player.release();
-        }
+     * @return the queue
+     */
+    private static String[] toQueue(String source) {
+        return source == null ? new String[0] : new String[]{source};
     }
 
     /**
-     * Format milliseconds to string in the below format:
-     * - If have hours: HH:MM
-     * - If NO have hours: MM:SS
+     * Store the media duration and the last playback position inside the current
+     * session, the position only if the source is the current item and not playing.
      *
-     * @param duration the duration in milliseconds
-     * @return the format time
+     * @param source   the media path
+     * @param duration the duration in milliseconds or UNKNOWN
+     * @param position the last playback position in milliseconds
+     * @return true if the source is in the session queue
+     */
+    private boolean storeMediaInfo(String source, int duration, int position) {
+        boolean changed = this.mSession.setDuration(source, duration);
+        if (duration != ScDurationProbe.UNKNOWN && !this.mSession.isActive() &&
+                this.equals(source, this.mSession.getSource()))
+            this.mSession.setPosition(position);
+        return changed;
+    }
+
+    /**
+     * Retrieve the media duration in milliseconds and the last playback position.
+     * The values are taken from the memory cache if known, otherwise the persistent
+     * metadata index is read or the duration is probed on a background worker so this
+     * method return immediately and the label will show a placeholder until the value
+     * arrives.
+     * The probe is requested only when attached to the window.
+     *
+     * @param source the media path
+     */
+    private void loadMediaInfo(String source) {
+        // Check if already known
+        ScMetadataIndex.Record cached = ScDurationProbe.getInstance().getCached(source);
+        if (cached != null) {
+            this.storeMediaInfo(source, cached.duration, cached.position);
+            return;
+        }
+
+        // Placeholder, a detached component will request when attached
+        this.mSession.setDuration(source, ScDurationProbe.UNKNOWN);
+        if (this.mPriority != ScPrepareScheduler.PRIORITY_DETACHED)
+            ScDurationProbe.getInstance()
+                    .probe(this.getContext(), source, this.mProbeListener, this.mPriority);
+    }
+
+    /**
+     * Stop waiting the duration and the envelope of the session sources
      */
-    private String formatTime(int duration) {
-        // Get the tokens
-        int seconds = (duration / 1000) % 60;
-        int minutes = (seconds / 60) % 60;
-        int hours = (seconds / (60 * 60)) % 24;
+    private void cancelMediaInfo() {
+        // Check if ever requested
+        if (this.mProbeListener == null)
+            return;
+
+        for (String source : this.mSession.getQueue())
+            ScDurationProbe.getInstance().cancel(source, this.mProbeListener);
+
+        String source = this.mSession.getSource();
+        if (source != null)
+            ScEnvelopeDecoder.getInstance().cancel(source, this.mEnvelopeListener);
+    }
 
-        // Format
-        if (hours == 0)
-            return (minutes < 10 ? "0" + minutes : minutes) + ":" +
-                    (seconds < 10 ? "0" + seconds : seconds);
+    /**
+     * Retrieve the durations not yet known and the envelope if it was interrupted.
+     * Nothing will be requested while the component is left behind by the scroll.
+     */
+    private void requestMediaInfo() {
+        // Check if needed
+        if (this.mPriority == ScPrepareScheduler.PRIORITY_BEHIND)
+            return;
+
+        // Request or update the priority of the pending ones
+        String[] sources = this.mSession.getQueue();
+        for (int index = 0; index < sources.length; index++)
+            if (this.mSession.getItemDuration(index) == ScDurationProbe.UNKNOWN)
+                this.loadMediaInfo(sources[index]);
+        if (this.mEnvelopeWaiting)
+            this.decodeMediaEnvelope(this.mSession.getSource());
+    }
+
+    /**
+     * Find the component priority from its position inside the window and request or
+     * cancel the media info if changed.
+     * The visible components come first, the ones left behind by the scroll are
+     * cancelled and will request again when visible.
+     */
+    private void prioritizeMediaInfo() {
+        // Find the position tracking the scroll direction
+        ScPrepareScheduler scheduler = ScPrepareScheduler.getInstance();
+        this.getLocationInWindow(this.mWindowLocation);
+        int top = this.mWindowLocation[1];
+        if (this.mPriority != ScPrepareScheduler.PRIORITY_DETACHED)
+            scheduler.setScrollDelta(top - this.mWindowTop);
+        this.mWindowTop = top;
+
+        // Check if changed
+        int priority = scheduler.getPriority(
+                top, top + this.getHeight(), this.getRootView().getHeight());
+        if (priority == this.mPriority)
+            return;
+
+        // Apply
+        this.mPriority = priority;
+        if (priority == ScPrepareScheduler.PRIORITY_BEHIND)
+            this.cancelMediaInfo();
         else
-            return (hours < 10 ? "0" + hours : hours) + ":" +
-                    (minutes < 10 ? "0" + minutes : minutes);
+            this.requestMediaInfo();
     }
 
     /**
-     * Check the requested permissions
+     * Change the session queue.
+     * Stop waiting the previous durations and envelope and retrieve the new ones, the
+     * durations already known by the session will not be retrieved again.
      *
-     * @return true if granted
+     * @param queue the media paths
      */
-    private boolean checkRequestedPermission() {
-        String permission = "android.permission." + ScPlayerButton.PERMISSION;
-        int res = getContext().checkCallingOrSelfPermission(permission);
-        return res == PackageManager.PERMISSION_GRANTED;
+    private void applyQueue(String[] queue) {
+        // Stop waiting the previous duration and envelope
+        this.cancelMediaInfo();
+
+        // Store and retrieve the media info only if not known
+        this.mSession.setQueue(queue);
+        this.mEnvelope = null;
+        this.mEnvelopeWaiting = this.mShowEnvelope && this.mSession.getSource() != null;
+        this.requestMediaInfo();
     }
 
     /**
-     * Load the icons.
-     * NOTE that this variable is static so the icon will loaded just one
-     * time for all the ScPlayerButton instances.
+     * Detach from the current session.
+     * A private session cannot be recovered anymore so its playback will be stopped.
      */
-    private void loadIcons() {
-        // Check if the icon is already loaded
-        if (ScPlayerButton.mPlayIcon == null) {
-            // Create a wrap of DrawableCompat to set tint when needs
-            Drawable drawable = ContextCompat
-                    .getDrawable(this.getContext(), R.drawable.ic_play_arrow_white_24dp);
-            ScPlayerButton.mPlayIcon = DrawableCompat.wrap(drawable).mutate();
-        }
+    private void leaveSession() {
+        // Stop the private playback
+        if (this.mSession.getId() == ScPlaybackSession.NO_ID)
+            this.mSession.stop();
+
+        // Detach
+        this.cancelMediaInfo();
+        this.mSession.detach(this.mSessionCallback);
+        this.stopVisuals();
+    }
 
-        // Check if the icon is already loaded
-        if (ScPlayerButton.mStopIcon == null) {
-            // Create a wrap of DrawableCompat to set tint when needs
-            Drawable drawable = ContextCompat
-                    .getDrawable(this.getContext(), R.drawable.ic_stop_white_24dp);
-            ScPlayerButton.mStopIcon = DrawableCompat.wrap(drawable).mutate();
-        }
+    /**
+     * Leave the current session and attach to a new one
+     *
+     * @param session the new session
+     * @param queue   the media paths
+     */
+    private void adoptSession(ScPlaybackSession session, String[] queue) {
+        // Leave the current session
+        this.leaveSession();
+
+        // Attach to the new session
+        this.mSession = session;
+        this.mSession.setVolume(this.mVolume);
+        this.mSession.setEngine(this.mEngine);
+        this.mSession.attach(this.mSessionCallback);
+        this.applyQueue(queue);
+        this.syncSession();
+    }
+
+    /**
+     * Retrieve the media envelope if needed.
+     * The envelope is decoded on a background worker and until the value arrives
+     * the component will be draw as usual.
+     * A detached component will request it when attached and a component left behind by
+     * the scroll when visible again.
+     *
+     * @param source the media path
+     */
+    private void decodeMediaEnvelope(String source) {
+        // Reset and request
+        this.mEnvelope = null;
+        this.mEnvelopeWaiting = this.mShowEnvelope && source != null;
+        if (this.mEnvelopeWaiting && this.mPriority != ScPrepareScheduler.PRIORITY_DETACHED &&
+                this.mPriority != ScPrepareScheduler.PRIORITY_BEHIND)
+            ScEnvelopeDecoder.getInstance().decode(
+                    this.getContext(), source, this.mEnvelopeListener, this.mPriority);
+    }
+
+    /**
+     * Check the requested permissions
+     *
+     * @return true if granted
+     */
+    private boolean checkRequestedPermission() {
+        int res = getContext().checkCallingOrSelfPermission(ScPlayerButton.PERMISSION);
+        return res == PackageManager.PERMISSION_GRANTED;
     }
 
     /**
@@ -293,100 +590,97 @@ public class ScPlayerButton extends View {
     // Manager media player
 
     /**
-     * Init a new media player.
+     * Find the visualizer capture size by the component width.
+     * One sample for every pixel column is enough so will be used the power of two
+     * nearest to the width clamped to the range supported by the device.
      *
-     * @param mediaPath the media path
-     * @param volume    the player volume
-     * @return the new media player
+     * @return the capture size
      */
-    private MediaPlayer initMediaPlayer(String mediaPath, float volume) {
-        // Create a new media player object
-        MediaPlayer player = MediaPlayer.create(this.getContext(), Uri.parse(mediaPath));
-
-        // Settings and return
-        player.seekTo(this.mPosition);
-        player.setLooping(false);
-        player.setVolume(volume, volume);
-        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-            @Override
-            public void onCompletion(MediaPlayer mediaPlayer) {
-                // Stop all
-                stopPlayMedia();
-
-                // Release the button state
-                setSelected(false);
-                invalidate();
-            }
-        });
-        return player;
+    private int findCaptureSize() {
+        // Find the next power of two
+        int width = Math.max(2, this.getWidth());
+        int size = Integer.highestOneBit(width - 1) << 1;
+
+        // Clamp
+        int[] range = Visualizer.getCaptureSizeRange();
+        if (size < range[0]) size = range[0];
+        if (size > range[1]) size = range[1];
+        return size;
     }
 
     /**
-     * Release the media player.
+     * Find the visualizer capture rate.
+     * If the device is in battery saver mode the reduced rate will be used.
      *
-     * @param player the player
+     * @return the capture rate in milli Hertz
      */
-    private void releaseMediaPlayer(MediaPlayer player) {
-        if (player != null) {
-            player.stop();
-            player.release();
+    private int findCaptureRate() {
+        // Check the power state
+        float hertz = this.mCaptureRate;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager manager = (PowerManager) this.getContext()
+                    .getSystemService(Context.POWER_SERVICE);
+            if (manager != null && manager.isPowerSaveMode())
+                hertz = Math.min(hertz, this.mCaptureRateSaver);
         }
+
+        // Clamp, the platform expose only the max rate
+        int rate = Math.max(1, Math.round(hertz * 1000));
+        if (rate > Visualizer.getMaxCaptureRate())
+            rate = Visualizer.getMaxCaptureRate();
+        return rate;
     }
 
     /**
      * Init a new visualizer.
-     * NOTE that if the app not has the permission requested the visualizer
+     * The capture will be done on a background thread and the frames handed over
+     * to the drawing by a triple buffer.
+     * If the engine own the PCM the wave form is fed directly by it without any
+     * permission, otherwise if the app not has the permission requested the visualizer
      * will be always NULL.
      *
-     * @param player the owner
+     * @param audioSessionId the audio session to capture
      * @return the new visualizer
      */
-    private Visualizer initVisualizer(MediaPlayer player) {
+    private ScWaveCapture initVisualizer(int audioSessionId) {
+        // Try to have the wave form directly from the engine, the capture is created only
+        // if it will be fed
+        boolean fft = this.mWaveStyle == ScPlayerButton.WAVE_STYLE_SPECTRUM;
+        if (!fft && this.mSession.canFeedWave()) {
+            ScWaveCapture capture = new ScWaveCapture(this, this.findCaptureSize(), false);
+            if (this.mSession.feedWave(capture))
+                return capture;
+        }
+
         // Check for permission
         if (!this.checkRequestedPermission())
             return null;
 
-        // Holder
-        int frequency = ScPlayerButton.UPDATE_FREQUENCY * 1000;
-        if (frequency > Visualizer.getMaxCaptureRate())
-            frequency = Visualizer.getMaxCaptureRate();
-
         // Settings and return
-        Visualizer visualizer = new Visualizer(player.getAudioSessionId());
-        visualizer.setCaptureSize(1024);
-        visualizer.setDataCaptureListener(new Visualizer.OnDataCaptureListener() {
-            @Override
-            public void onWaveFormDataCapture(Visualizer visualizer,
-                                              byte[] bytes,
-                                              int samplingRate) {
-                mWaveToken = bytes;
-                postInvalidate();
-            }
-
-            @Override
-            public void onFftDataCapture(
-                    Visualizer visualizer,
-                    byte[] bytes,
-                    int samplingRate) {
-                // NOP
-            }
-
-        }, frequency, true, false);
-
-        visualizer.setEnabled(true);
+        ScWaveCapture visualizer = new ScWaveCapture(this, this.findCaptureSize(), fft);
+        visualizer.setOnEvictedListener(this.mCaptureListener);
+        visualizer.start(audioSessionId, this.findCaptureRate());
         return visualizer;
     }
 
+    /**
+     * Restart the visualizer if active renegotiating the capture settings
+     */
+    private void restartVisualizer() {
+        if (this.mVisualizer != null && this.mSession.isPlaying()) {
+            this.releaseVisualizer(this.mVisualizer);
+            this.mVisualizer = this.initVisualizer(this.mSession.getAudioSessionId());
+        }
+    }
+
     /**
      * Release the visualizer.
      *
      * @param visualizer the visualizer
      */
-    private void releaseVisualizer(Visualizer visualizer) {
-        if (visualizer != null) {
-            visualizer.setEnabled(false);
+    private void releaseVisualizer(ScWaveCapture visualizer) {
+        if (visualizer != null)
             visualizer.release();
-        }
     }
 
     /**
@@ -394,106 +688,195 @@ public class ScPlayerButton extends View {
      * This is required if the app not have the requested permission to
      * showing the wave form since we need to update the time label while
      * the player is running.
+     * The update is driven by the shared frame clock and will be suspended
+     * while the component is detached from the window.
      */
-    private ScheduledExecutorService initUpdate() {
-        // Start new one
-        int milliseconds = (int) ((1 / (float) ScPlayerButton.UPDATE_FREQUENCY) * 1000);
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                postInvalidate();
-            }
-        }, 0L, milliseconds, TimeUnit.MILLISECONDS);
-
-        return executor;
+    private void startUpdate() {
+        this.mUpdating = true;
+        if (ViewCompat.isAttachedToWindow(this))
+            ScFrameClock.getInstance().add(this.mFrameListener);
     }
 
     /**
-     * Stop the update service
+     * Stop the update
      */
-    private void releaseUpdate(ScheduledExecutorService executor) {
-        if (executor != null)
-            executor.shutdownNow();
+    private void stopUpdate() {
+        this.mUpdating = false;
+        ScFrameClock.getInstance().remove(this.mFrameListener);
     }
 
     /**
-     * Start to play the media
-     *
-     * @param mediaPath the path to media
+     * Start to show the playing state.
+     * The visualizer will capture the session audio, if not available or if showing
+     * the envelope the component will be updated periodically.
+     * A detached component will start when attached again.
      */
-    private void startPlayMedia(String mediaPath) {
-        try {
-            // Stop if active
-            this.stopPlayMedia();
+    private void startVisuals() {
+        // Check for empty values
+        if (!this.mSession.isActive() || this.mSession.isPreparing() ||
+                !ViewCompat.isAttachedToWindow(this))
+            return;
+
+        // Visualizer, not needed if showing the envelope
+        if (this.mFrameListener == null)
+            this.initVisuals();
+        this.stopVisuals();
+        if (!this.mShowEnvelope)
+            this.mVisualizer = this.initVisualizer(this.mSession.getAudioSessionId());
+
+        // If no granted for showing the wave form we must force to
+        // update the layout periodically to refresh the time
+        if (this.mVisualizer == null)
+            this.startUpdate();
+    }
 
-            // Create the player and start to play the media
-            if (mediaPath != null) {
-                // Player
-                this.mPlayer = this.initMediaPlayer(mediaPath, this.mVolume);
-                this.mVisualizer = this.initVisualizer(this.mPlayer);
+    /**
+     * Stop to show the playing state
+     */
+    private void stopVisuals() {
+        this.stopUpdate();
+        this.releaseVisualizer(this.mVisualizer);
+        this.mVisualizer = null;
+    }
 
-                // If no granted for showing the wave form we must force to
-                // update the layout periodically to refresh the time
-                if (this.mVisualizer == null)
-                    this.mExecutor = this.initUpdate();
+    /**
+     * Align the button state with the current session.
+     * Called when a session is attached since it could be already playing.
+     */
+    private void syncSession() {
+        boolean active = this.mSession.isActive();
+        this.setSelected(active);
+        if (active)
+            this.startVisuals();
+        else
+            this.stopVisuals();
+        this.invalidate();
+    }
 
-                // Play
-                this.mPlayer.start();
+    /**
+     * Manage the click event
+     */
+    private void fireClick() {
+        // Toggle the playback, the selected state will follow the session
+        if (this.mSession.isActive()) {
+            // Stop all running process
+            this.mSession.stop();
 
-                // Event
-                if (this.mEventListener != null)
-                    this.mEventListener.onStartPlay(this.mPlayer);
-            }
+        } else {
+            // Play the media
+            this.mTapTime = ScPlayerMetrics.now();
+            this.mSession.play(this.getContext());
+            this.setSelected(this.mSession.isActive());
+            this.invalidate();
+        }
+    }
 
-        } catch (
-                Exception ex)
+    /**
+     * Find the current item position under the finger.
+     * The whole width less the drawing margin is mapped to the item duration.
+     *
+     * @param x the finger horizontal position
+     * @return the position in milliseconds
+     */
+    private int findScrubPosition(float x) {
+        int margin = 10;
+        float width = Math.max(1, this.getWidth() - margin * 2);
+        float fraction = Math.max(0.0f, Math.min(1.0f, (x - margin) / width));
+        return (int) (fraction * this.mSession.getItemDuration());
+    }
 
-        {
-            // Print the error on the stack
-            ex.printStackTrace();
-        }
+    /**
+     * Do the last coalesced scrubbing seek.
+     * While moving the seek is fast and will land on the nearest sync sample.
+     */
+    private void seekScrub() {
+        this.mSeekScheduled = false;
+        this.mSeekTime = SystemClock.uptimeMillis();
+        this.mSession.seekTo(this.mScrubPosition, false);
     }
 
     /**
-     * Stop to play the media
+     * Move the scrubbing position.
+     * The label is updated immediately while the seeks are throttled, the requests done
+     * inside the interval are coalesced into the last one.
+     *
+     * @param x the finger horizontal position
      */
-    private void stopPlayMedia() {
-        // If exists stop the play
-        if (this.mPlayer != null && this.mPlayer.isPlaying()) {
-            // Stop and release
-            this.releaseUpdate(this.mExecutor);
-            this.releaseVisualizer(this.mVisualizer);
-            this.releaseMediaPlayer(this.mPlayer);
+    private void moveScrub(float x) {
+        // Check if changed
+        int position = this.findScrubPosition(x);
+        if (position == this.mScrubPosition)
+            return;
 
-            // To null
-            this.mExecutor = null;
-            this.mVisualizer = null;
-            this.mPlayer = null;
+        this.mScrubPosition = position;
+        this.invalidate();
 
-            // Event
-            if (this.mEventListener != null)
-                this.mEventListener.onStopPlay();
+        // Seek now or when the interval is elapsed
+        long wait = this.mSeekTime + ScPlayerButton.SEEK_INTERVAL - SystemClock.uptimeMillis();
+        if (wait <= 0)
+            this.seekScrub();
+        else if (!this.mSeekScheduled) {
+            this.mSeekScheduled = true;
+            this.postDelayed(this.mSeekRunnable, wait);
         }
     }
 
     /**
-     * Manage the click event
+     * Stop the scrubbing with a precise seek on the last position
      */
-    private void fireClick() {
-        // Toggle the current selected state
-        this.setSelected(!this.isSelected());
+    private void endScrub() {
+        // Drop the coalesced seek
+        this.removeCallbacks(this.mSeekRunnable);
+        this.mSeekScheduled = false;
+
+        // Precise seek
+        this.mSession.seekTo(this.mScrubPosition, true);
+        this.mScrubbing = false;
+        this.mScrubPosition = -1;
         this.invalidate();
+    }
 
-        // If selected start to play the sound
-        if (this.isSelected()) {
-            // Play the media
-            this.startPlayMedia(this.mSource);
-
-        } else {
-            // Stop all running process
-            this.stopPlayMedia();
+    /**
+     * Manage the horizontal drag over the component.
+     * The scrubbing start when the finger move horizontally over the touch slop and only
+     * if the item duration is known.
+     *
+     * @param e the event
+     * @return true if scrubbing
+     */
+    private boolean scrub(MotionEvent e) {
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                this.mDownX = e.getX();
+                this.mDownY = e.getY();
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                // Check if start
+                if (!this.mScrubbing) {
+                    float dx = Math.abs(e.getX() - this.mDownX);
+                    float dy = Math.abs(e.getY() - this.mDownY);
+                    if (dx <= this.mTouchSlop || dx < dy || this.mSession.getItemDuration() <= 0)
+                        break;
+
+                    // Keep the gesture from the scrolling parent
+                    this.mScrubbing = true;
+                    if (this.getParent() != null)
+                        this.getParent().requestDisallowInterceptTouchEvent(true);
+                }
+                this.moveScrub(e.getX());
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (this.mScrubbing) {
+                    this.moveScrub(e.getX());
+                    this.endScrub();
+                    return true;
+                }
+                break;
         }
+        return this.mScrubbing;
     }
 
 
@@ -505,37 +888,20 @@ public class ScPlayerButton extends View {
      * Please note when playing this label will show the elapsed time.
      *
      * @param canvas canvas
-     * @param area   bounds
-     * @return the rect area
+     * @param area   bounds, will be reduced by the label height
      */
-    private Rect drawTime(Canvas canvas, Rect area) {
-        // Set the painter
-        this.mTimePaint.setColor(this.mColor);
-        this.mTimePaint.setTextSize(this.mFontSize);
-
+    private void drawTime(Canvas canvas, Rect area) {
         // Get the time to display
-        int time = this.mMediaDuration;
-        if (this.isSelected() &&
-                this.mPlayer != null && this.mPlayer.isPlaying())
-            time = this.mPlayer.getCurrentPosition();
-
-        // Format the duration and get the dimension
-        String timeFormatted = this.formatTime(time);
-        this.mTimePaint.getTextBounds(timeFormatted, 0, timeFormatted.length(), this.mGenericRect);
-
-        // Calculate the position
-        int x = (area.width() - this.mGenericRect.width()) / 2;
-        int y = area.bottom;
-
-        // Draw the text on the canvas
-        int margin = 20;
-        canvas.drawText(timeFormatted, x, y - margin, this.mTimePaint);
-
-        // Reduce the drawing area
-        return new Rect(
-                area.left, area.top,
-                area.right, area.bottom - this.mGenericRect.height() - margin
-        );
+        int time = this.mSession.getDuration();
+        if (this.mScrubbing)
+            time = this.mSession.getOffset() + this.mScrubPosition;
+        else if (this.isSelected() && this.mSession.isPlaying())
+            time = this.mSession.getCurrentPosition();
+
+        // Format the duration and draw
+        this.mLabel.set(time);
+        ScPlayerRenderer.getInstance()
+                .drawTime(canvas, area, this.mLabel, this.mColor, this.mFontSize);
     }
 
     /**
@@ -546,47 +912,47 @@ public class ScPlayerButton extends View {
      * @param data   the data to visualize
      */
     private void drawWave(Canvas canvas, Rect area, byte[] data) {
-        // Reset the path
-        this.mGenericPath.reset();
+        // The spectrum keep its smoothing state
+        if (this.mWaveStyle == ScPlayerButton.WAVE_STYLE_SPECTRUM && this.mAnalyzer == null)
+            this.mAnalyzer = new ScSpectrumAnalyzer();
 
-        // Apply margin
-        int margin = 10;
-        area.set(
-                area.left + margin, area.top + margin,
-                area.right - margin, area.bottom - margin
-        );
+        ScPlayerRenderer.getInstance().drawWave(
+                canvas, area, data, this.mWaveStyle, this.mAnalyzer, this.mColor);
+    }
 
-        // Check for empty values
-        if (data == null) {
-            // Create an horizontal line
-            this.mGenericPath.moveTo(area.left, area.centerY());
-            this.mGenericPath.lineTo(area.right, area.centerY());
+    /**
+     * Draw the whole media envelope.
+     * While playing the played part will be draw with the foreground color and the
+     * remaining part with a faded color.
+     *
+     * @param canvas the canvas
+     * @param area   the bounds
+     */
+    private void drawEnvelope(Canvas canvas, Rect area) {
+        // Find the progress
+        float progress = -1.0f;
+        int duration = this.mSession.getItemDuration();
+        if (this.mScrubbing && duration > 0)
+            progress = this.mScrubPosition / (float) duration;
+        else if (this.isSelected() && this.mSession.isPlaying() && duration > 0)
+            progress = this.mSession.getItemPosition() / (float) duration;
+
+        ScPlayerRenderer.getInstance()
+                .drawEnvelope(canvas, area, this.mEnvelope, progress, this.mColor);
+    }
 
-        } else {
-            // Calculate the scale
-            float xScale = area.width() / (float) data.length;
-            float yScale = area.height() / 255.0f;
-
-            // Create the path
-            for (int index = 0; index < data.length; index++) {
-                // Get the signed value
-                int value = data[index] & 0xff;
-
-                // Calculate the position
-                float x = area.left + index * xScale;
-                float y = area.top + value * yScale;
-
-                // Add to path the new position
-                if (index == 0)
-                    this.mGenericPath.moveTo(x, y);
-                else
-                    this.mGenericPath.lineTo(x, y);
-            }
-        }
+    /**
+     * Draw the preparing state.
+     * A rotating arc will be draw until the media player is not ready to play.
+     *
+     * @param canvas the canvas
+     * @param area   the bounds
+     */
+    private void drawPreparing(Canvas canvas, Rect area) {
+        ScPlayerRenderer.getInstance().drawPreparing(canvas, area, this.mColor);
 
-        // Draw the path on canvas
-        this.mWavePaint.setColor(this.mColor);
-        canvas.drawPath(this.mGenericPath, this.mWavePaint);
+        // Keep animating
+        ViewCompat.postInvalidateOnAnimation(this);
     }
 
     /**
@@ -598,30 +964,25 @@ public class ScPlayerButton extends View {
      * @param area   the bounds
      */
     private void drawIcon(Canvas canvas, Rect area) {
-        // Load the icons
-        this.loadIcons();
-
-        // Calculate the proportional area
-        int left = area.left;
-        int top = area.top;
-        int right = area.right;
-        int bottom = area.bottom;
-
-        if (area.width() > area.height()) {
-            left = area.centerX() - area.height() / 2;
-            right = area.centerX() + area.height() / 2;
+        ScPlayerRenderer.getInstance()
+                .drawIcon(this.getContext(), canvas, area, this.isSelected(), this.mColor);
+    }
 
-        } else {
-            top = area.centerY() + area.width() / 2;
-            bottom = area.centerY() - area.width() / 2;
-        }
 
-        // Draw the icon inside the area
-        Drawable icon = this.isSelected() ?
-                ScPlayerButton.mStopIcon : ScPlayerButton.mPlayIcon;
-        DrawableCompat.setTint(icon, this.mColor);
-        icon.setBounds(left, top, right, bottom);
-        icon.draw(canvas);
+    /**
+     * Draw the idle state using the shared rasterized cache.
+     * If the same idle state was already drawn by any other button the bitmap will be
+     * reused, otherwise the state will be rasterized and stored.
+     *
+     * @param canvas the canvas
+     * @return false if the state cannot be cached
+     */
+    private boolean drawIdle(Canvas canvas) {
+        this.mDrawingArea.set(0, 0, canvas.getWidth(), canvas.getHeight());
+        this.mLabel.set(this.mSession.getDuration());
+        return ScPlayerRenderer.getInstance().drawIdle(
+                this.getContext(), canvas, this.mDrawingArea, this.mLabel,
+                this.mColor, this.mFontSize);
     }
 
 
@@ -629,15 +990,20 @@ public class ScPlayerButton extends View {
     // Override
 
     /**
-     * Manage the single click event
+     * Manage the single click and the scrubbing events
      *
      * @param e the event
      * @return always true
      */
     @Override
     public boolean onTouchEvent(MotionEvent e) {
+        // Scrubbing, the detector will not confirm a tap after a drag
+        if (this.mDetector == null)
+            this.initGestures();
+        boolean scrubbing = this.scrub(e);
+
         // Single click
-        if (this.mDetector.onTouchEvent(e))
+        if (this.mDetector.onTouchEvent(e) && !scrubbing)
             this.fireClick();
 
         return true;
@@ -650,22 +1016,110 @@ public class ScPlayerButton extends View {
      */
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = ScPlayerMetrics.now();
+        this.drawState(canvas);
+        ScPlayerMetrics.recordDrawTime(start);
+    }
+
+    /**
+     * Draw the component by the playback status
+     *
+     * @param canvas to draw
+     */
+    private void drawState(Canvas canvas) {
+        // If idle try to use the shared rasterized state
+        boolean preparing = this.mSession.isPreparing();
+        if (!this.isSelected() && !preparing && !this.mScrubbing && this.mEnvelope == null &&
+                this.drawIdle(canvas))
+            return;
+
         // Get the drawing area
         this.mDrawingArea.set(0, 0, canvas.getWidth(), canvas.getHeight());
 
-        // Draw the time and get back the new drawing area reduced by the
-        // time label height
-        this.mDrawingArea = this.drawTime(canvas, this.mDrawingArea);
+        // Draw the time and reduce the drawing area by the time label height
+        this.drawTime(canvas, this.mDrawingArea);
 
         // By the status
-        if (this.isSelected() && this.checkRequestedPermission())
-            // If pressed the sound is playing so draw the wave
-            this.drawWave(canvas, this.mDrawingArea, this.mWaveToken);
+        if (preparing)
+            // Waiting for the media player
+            this.drawPreparing(canvas, this.mDrawingArea);
+
+        else if (this.mEnvelope != null)
+            // The whole media envelope
+            this.drawEnvelope(canvas, this.mDrawingArea);
+
+        else if (this.isSelected() && this.mVisualizer != null)
+            // If pressed the sound is playing so draw the wave.
+            // The visualizer exists only if the permission was granted.
+            this.drawWave(canvas, this.mDrawingArea, this.mVisualizer.acquireFrame());
         else
             // If not pressed not playing the media draw the icon
             this.drawIcon(canvas, this.mDrawingArea);
     }
 
+    /**
+     * Resume the periodic update or the visualizer if the session is still playing.
+     * The media info priority will be found after the layout and then tracked while
+     * scrolling.
+     */
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (this.mScrollListener == null)
+            this.initTracking();
+        this.getViewTreeObserver().addOnScrollChangedListener(this.mScrollListener);
+        this.getViewTreeObserver().addOnPreDrawListener(this.mLayoutListener);
+
+        if (this.mUpdating)
+            ScFrameClock.getInstance().add(this.mFrameListener);
+        else if (this.mSession.isPlaying() && this.mVisualizer == null)
+            this.startVisuals();
+    }
+
+    /**
+     * Suspend the periodic update and the visualizer since a detached component not
+     * need to be drawn.
+     * The playback of a bound session will continue, a private session cannot be
+     * reached anymore so it will be stopped releasing the player, unless the activity
+     * is recreating since in this case the session was parked for the new component.
+     * The waiting media info are cancelled and will be requested again when attached.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        this.getViewTreeObserver().removeOnScrollChangedListener(this.mScrollListener);
+        this.getViewTreeObserver().removeOnPreDrawListener(this.mLayoutListener);
+        ScFrameClock.getInstance().remove(this.mFrameListener);
+
+        // Stop waiting the media info, will be requested again when attached
+        this.cancelMediaInfo();
+        this.mPriority = ScPrepareScheduler.PRIORITY_DETACHED;
+        this.releaseVisualizer(this.mVisualizer);
+        this.mVisualizer = null;
+
+        // Release the private playback
+        Activity activity = ScSessionRetainer.findActivity(this.getContext());
+        boolean recreating = activity != null && activity.isChangingConfigurations();
+        if (this.mSession.getId() == ScPlaybackSession.NO_ID && !recreating)
+            this.mSession.stop();
+    }
+
+    /**
+     * Renegotiate the visualizer capture size when the dimension change
+     *
+     * @param width     the new width
+     * @param height    the new height
+     * @param oldWidth  the old width
+     * @param oldHeight the old height
+     */
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        if (this.mVisualizer != null &&
+                this.mVisualizer.getCaptureSize() != this.findCaptureSize())
+            this.restartVisualizer();
+    }
+
     /**
      * Take the measure of the component
      *
@@ -698,7 +1152,8 @@ public class ScPlayerButton extends View {
     // Instance state
 
     /**
-     * Save the current instance state
+     * Save the current instance state.
+     * If playing the session will be parked to be claimed back by the recreated view.
      *
      * @return the state
      */
@@ -711,16 +1166,28 @@ public class ScPlayerButton extends View {
         Bundle state = new Bundle();
         // Save all starting from the parent state
         state.putParcelable("PARENT", superState);
-        state.putString("mSource", this.mSource);
+        state.putStringArray("mQueue", this.mSession.getQueue());
+        state.putInt("mIndex", this.mSession.getIndex());
         state.putInt("mColor", this.mColor);
         state.putFloat("mFontSize", this.mFontSize);
+        state.putInt("mPosition", this.mSession.getItemPosition());
+
+        // Park the active private session so the player will survive the
+        // activity recreation
+        Activity activity = ScSessionRetainer.findActivity(this.getContext());
+        if (activity != null && this.mSession.isActive() &&
+                this.mSession.getId() == ScPlaybackSession.NO_ID)
+            state.putLong("mSessionToken", ScSessionRetainer
+                    .getInstance(activity).park(activity, this.mSession));
 
         // Return the new state
         return state;
     }
 
     /**
-     * Restore the current instance state
+     * Restore the current instance state.
+     * If a parked session exists the new view will attach to it without prepare again
+     * the media, otherwise the play will restart from the saved position.
      *
      * @param state the state
      */
@@ -734,9 +1201,25 @@ public class ScPlayerButton extends View {
         super.onRestoreInstanceState(superState);
 
         // Now can restore all the saved variables values
-        this.mSource = savedState.getString("mSource");
         this.mColor = savedState.getInt("mColor");
         this.mFontSize = savedState.getFloat("mFontSize");
+
+        // Claim back the parked session
+        long token = savedState.getLong("mSessionToken", ScSessionRetainer.NO_TOKEN);
+        ScPlaybackSession session = token == ScSessionRetainer.NO_TOKEN ? null :
+                ScSessionRetainer.getInstance(this.getContext()).claim(token);
+        if (session != null) {
+            this.adoptSession(session, session.getQueue());
+            return;
+        }
+
+        // Start again from the saved position
+        String[] queue = savedState.getStringArray("mQueue");
+        this.setQueue(queue == null ? new String[0] : queue);
+        if (!this.mSession.isActive()) {
+            this.mSession.setIndex(savedState.getInt("mIndex"));
+            this.mSession.setPosition(savedState.getInt("mPosition"));
+        }
     }
 
 
@@ -745,12 +1228,13 @@ public class ScPlayerButton extends View {
 
     /**
      * Get back the media duration.
+     * Return -1 until the duration is not retrieved from the media.
      *
      * @return in milliseconds
      */
     @SuppressWarnings("unused")
     public int getDuration() {
-        return this.mMediaDuration;
+        return this.mSession.getDuration();
     }
 
     /**
@@ -760,15 +1244,28 @@ public class ScPlayerButton extends View {
      */
     @SuppressWarnings("unused")
     public boolean isPlaying() {
-        return this.mPlayer != null && this.mPlayer.isPlaying();
+        return this.mSession.isPlaying();
     }
 
     /**
-     * Start to play the current media
+     * Get the media preparing status.
+     *
+     * @return true if the player is preparing the media
+     */
+    @SuppressWarnings("unused")
+    public boolean isPreparing() {
+        return this.mSession.isPreparing();
+    }
+
+    /**
+     * Start to play the current media.
+     * The media will be prepared asynchronously and start to play when ready.
      */
     @SuppressWarnings("unused")
     public void play() {
-        this.startPlayMedia(this.mSource);
+        this.mSession.play(this.getContext());
+        this.setSelected(this.mSession.isActive());
+        this.invalidate();
     }
 
     /**
@@ -776,7 +1273,72 @@ public class ScPlayerButton extends View {
      */
     @SuppressWarnings("unused")
     public void stop() {
-        this.stopPlayMedia();
+        this.mSession.stop();
+    }
+
+    /**
+     * Bind the button to a stable item id.
+     * The playback state is kept in a session tied to the id and not to the button so
+     * when used inside a RecyclerView the play will survive the view recycling: bind
+     * the button in onBindViewHolder and any view bound later to the same id will
+     * show again the playing state and the progress.
+     * If the button was not bound to an item its own playback will be stopped.
+     *
+     * @param id     the stable item id
+     * @param source the media path
+     */
+    @SuppressWarnings("unused")
+    public void bind(long id, String source) {
+        // Check if already bound to the same item and the session not released
+        if (this.mSession.isBoundTo(id)) {
+            this.setSource(source);
+            return;
+        }
+
+        // Attach to the item session
+        this.adoptSession(ScPlaybackSession.obtain(id), ScPlayerButton.toQueue(source));
+    }
+
+    /**
+     * Unbind the button from the current item.
+     * The item playback will continue and can be recovered binding the same id, the
+     * button will use a new private session.
+     * Call this in onViewRecycled to release the item as soon as possible.
+     */
+    @SuppressWarnings("unused")
+    public void unbind() {
+        // Check if bound
+        if (this.mSession.getId() == ScPlaybackSession.NO_ID)
+            return;
+
+        // Leave the item session and use a private one
+        this.adoptSession(ScPlaybackSession.create(), new String[0]);
+    }
+
+    /**
+     * Stop the playback of an item and forget its state.
+     * Call this when the item is removed from the list.
+     *
+     * @param id the stable item id
+     */
+    @SuppressWarnings("unused")
+    public static void release(long id) {
+        ScPlaybackSession.release(id);
+    }
+
+    /**
+     * Set the budget of the background preparation shared by all the components, like
+     * the duration probe and the envelope decoding.
+     * The visible components are prepared first, when the pending requests exceed the
+     * budget the farthest ones are dropped and will be requested again when nearer.
+     * Default are 2 workers and 64 pending requests.
+     *
+     * @param concurrency the workers count
+     * @param maxPending  the max pending requests
+     */
+    @SuppressWarnings("unused")
+    public static void setPrepareBudget(int concurrency, int maxPending) {
+        ScPrepareScheduler.getInstance().setBudget(concurrency, maxPending);
     }
 
 
@@ -790,7 +1352,7 @@ public class ScPlayerButton extends View {
      */
     @SuppressWarnings("unused")
     public String getSource() {
-        return this.mSource;
+        return this.mSession.getSource();
     }
 
     /**
@@ -800,15 +1362,51 @@ public class ScPlayerButton extends View {
      */
     @SuppressWarnings("unused")
     public void setSource(String value) {
+        this.setQueue(ScPlayerButton.toQueue(value));
+    }
+
+
+    /**
+     * Return the sources queue
+     *
+     * @return a copy of the paths
+     */
+    @SuppressWarnings("unused")
+    public String[] getQueue() {
+        return this.mSession.getQueue();
+    }
+
+    /**
+     * Set the sources queue.
+     * The sources will be played back to back, while an item is playing the next one
+     * is prepared in background and chained so there is no gap between the items.
+     * The time label and the progress advance across the whole queue.
+     *
+     * @param value the paths
+     */
+    @SuppressWarnings("unused")
+    public void setQueue(String... value) {
+        // Fix the value
+        if (value == null) value = new String[0];
+
         // Check if value is changed
-        if (!this.equals(this.mSource, value)) {
+        if (!Arrays.equals(this.mSession.getQueue(), value)) {
             // Store the new value
-            this.mSource = value;
-            // Retrieve the new duration
-            this.mMediaDuration = this.getMediaDuration(value);
+            this.applyQueue(value);
+            this.invalidate();
         }
     }
 
+    /**
+     * Return the index of the current queue item
+     *
+     * @return the index
+     */
+    @SuppressWarnings("unused")
+    public int getQueueIndex() {
+        return this.mSession.getIndex();
+    }
+
 
     /**
      * Return the current foreground color
@@ -885,26 +1483,171 @@ public class ScPlayerButton extends View {
             this.mVolume = value;
 
             // Set directly in the player
-            if (this.mPlayer.isPlaying())
-                this.mPlayer.setVolume(value, value);
+            this.mSession.setVolume(value);
         }
     }
 
 
     /**
-     * Return the current media player position.
+     * Return the current wave drawing style
+     *
+     * @return the style
+     */
+    @SuppressWarnings("unused")
+    public int getWaveStyle() {
+        return this.mWaveStyle;
+    }
+
+    /**
+     * Set the current wave drawing style.
+     * Can be WAVE_STYLE_PATH, WAVE_STYLE_BARS, WAVE_STYLE_DOTS or WAVE_STYLE_SPECTRUM.
+     *
+     * @param value the new style
+     */
+    @SuppressWarnings("unused")
+    public void setWaveStyle(int value) {
+        // Check if value is changed
+        if (this.mWaveStyle != value) {
+            // Store the new value
+            this.mWaveStyle = value;
+
+            // Restart the capture if the captured data type is changed
+            boolean fft = value == ScPlayerButton.WAVE_STYLE_SPECTRUM;
+            if (this.mVisualizer != null && this.mVisualizer.isFft() != fft)
+                this.restartVisualizer();
+            this.invalidate();
+        }
+    }
+
+
+    /**
+     * Return if showing the whole media envelope
+     *
+     * @return true if showing the envelope
+     */
+    @SuppressWarnings("unused")
+    public boolean getShowEnvelope() {
+        return this.mShowEnvelope;
+    }
+
+    /**
+     * Set if showing the whole media envelope instead of the play icon and the
+     * visualizer wave form.
+     * The envelope not need the RECORD_AUDIO permission.
+     *
+     * @param value true to show the envelope
+     */
+    @SuppressWarnings("unused")
+    public void setShowEnvelope(boolean value) {
+        // Check if value is changed
+        if (this.mShowEnvelope != value) {
+            // Store the new value
+            this.mShowEnvelope = value;
+            this.decodeMediaEnvelope(this.mSession.getSource());
+            this.invalidate();
+        }
+    }
+
+
+    /**
+     * Return the visualizer capture rate
+     *
+     * @return the rate in Hertz
+     */
+    @SuppressWarnings("unused")
+    public float getCaptureRate() {
+        return this.mCaptureRate;
+    }
+
+    /**
+     * Set the visualizer capture rate.
+     * The rate will be clamped to the range supported by the device.
+     *
+     * @param value the new rate in Hertz
+     */
+    @SuppressWarnings("unused")
+    public void setCaptureRate(float value) {
+        // Check if value is changed
+        if (this.mCaptureRate != value) {
+            // Store the new value
+            this.mCaptureRate = value;
+            this.restartVisualizer();
+        }
+    }
+
+
+    /**
+     * Return the visualizer capture rate used in battery saver mode
+     *
+     * @return the rate in Hertz
+     */
+    @SuppressWarnings("unused")
+    public float getCaptureRateSaver() {
+        return this.mCaptureRateSaver;
+    }
+
+    /**
+     * Set the visualizer capture rate used in battery saver mode
+     *
+     * @param value the new rate in Hertz
+     */
+    @SuppressWarnings("unused")
+    public void setCaptureRateSaver(float value) {
+        // Check if value is changed
+        if (this.mCaptureRateSaver != value) {
+            // Store the new value
+            this.mCaptureRateSaver = value;
+            this.restartVisualizer();
+        }
+    }
+
+
+    /**
+     * Return the playback engine
+     *
+     * @return the engine
+     */
+    @SuppressWarnings("unused")
+    public int getEngine() {
+        return this.mEngine;
+    }
+
+    /**
+     * Set the playback engine.
+     * Can be ENGINE_AUTO, ENGINE_MEDIA_PLAYER, ENGINE_CLIP or ENGINE_STREAM.
+     * The clip engine decode the media one time and keep it in memory so the next plays
+     * start without latency, the auto engine use it for the short media.
+     * The stream engine decode while playing and draw the wave form from its own PCM,
+     * so it not need the RECORD_AUDIO permission.
+     * The new engine will be used from the next play.
+     *
+     * @param value the new engine
+     */
+    @SuppressWarnings("unused")
+    public void setEngine(int value) {
+        // Check if value is changed
+        if (this.mEngine != value) {
+            // Store the new value
+            this.mEngine = value;
+            this.mSession.setEngine(value);
+        }
+    }
+
+
+    /**
+     * Return the current media player position inside the current queue item.
      *
      * @return the position
      */
     @SuppressWarnings("unused")
     public int getPosition() {
-        return this.mPosition;
+        return this.mSession.getItemPosition();
     }
 
     /**
-     * Set the current media player position
+     * Set the current media player position inside the current queue item
      *
-     * @param value the new volume
+     * @param value the new position
      */
     @SuppressWarnings("unused")
     public void setPosition(int value) {
@@ -912,13 +1655,10 @@ public class ScPlayerButton extends View {
         if (value < 0) value = 0;
 
         // Check if value is changed
-        if (this.mPosition != value) {
-            // Store the new value
-            this.mPosition = value;
-
-            // Set directly in the player
-            if (this.mPlayer.isPlaying())
-                this.mPlayer.seekTo(value);
+        if (this.mSession.getItemPosition() != value) {
+            // Store the new value, if playing the player will seek
+            this.mSession.setPosition(value);
+            this.invalidate();
         }
     }
 
@@ -935,7 +1675,7 @@ public class ScPlayerButton extends View {
         /**
          * When start to play some media.
          *
-         * @param player the media player object
+         * @param player the media player object or null if playing with an engine
          */
         void onStartPlay(MediaPlayer player);
 
@@ -947,7 +1687,41 @@ public class ScPlayerButton extends View {
     }
 
     /**
-     * Set the generic event listener
+     * Detailed playback event listener.
+     * Pass an implementation to setOnEventListener to receive also these events.
+     */
+    @SuppressWarnings("all")
+    public interface OnPlaybackEventListener extends OnEventListener {
+
+        /**
+         * When the media player is ready to play
+         *
+         * @param player the media player object or null if playing with an engine
+         */
+        void onPrepared(MediaPlayer player);
+
+        /**
+         * When the media player fail
+         *
+         * @param what  the type of error
+         * @param extra the specific error code
+         */
+        void onError(int what, int extra);
+
+        /**
+         * When the playback of a remote media stall waiting for the network and when
+         * it resume.
+         *
+         * @param buffering true if stalled
+         */
+        void onBuffering(boolean buffering);
+
+    }
+
+    /**
+     * Set the generic event listener.
+     * If the listener implement OnPlaybackEventListener will receive also the detailed
+     * playback events.
      *
      * @param listener the listener
      */
@@ -0,0 +1,642 @@
+package com.sccomponents.playerbutton;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.media.MediaPlayer;
+
+import java.util.Arrays;
+
+
+/**
+ * Play a media without a view.
+ * The drawable show the same states of the ScPlayerButton (duration, preparing arc,
+ * envelope, play and stop icons) but keep only the state of its media: the paints,
+ * the icons and the buffers are shared by all the players through the flyweight
+ * renderer. Can be drawn inside compound item views, chat bubbles or by a single
+ * custom view that draw many players.
+ * The host must forward the taps calling toggle() and release the drawable when not
+ * needed anymore.
+ * The duration and the envelope are requested in background by the drawable priority and
+ * the pending requests are cancelled while the drawable is not visible.
+ * NOTE that the live wave form need a view so while playing will be draw the
+ * envelope if enabled, otherwise the stop icon.
+ */
+
+@SuppressWarnings("unused")
+public class ScPlayerDrawable extends Drawable {
+
+    // ***************************************************************************************
+    // Constants
+
+    public static final int PRIORITY_VISIBLE = ScPrepareScheduler.PRIORITY_VISIBLE;
+    public static final int PRIORITY_HIDDEN = ScPrepareScheduler.PRIORITY_BEHIND;
+
+    private static final float FONT_SIZE = 11.0f; // Dip
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private final Context mContext;
+    private final ScPlayerRenderer.Label mLabel;
+    private final Rect mArea;
+    private final ScPlaybackSession.Callback mSessionCallback;
+    private final ScDurationProbe.OnProbeListener mProbeListener;
+    private final ScEnvelopeDecoder.OnEnvelopeListener mEnvelopeListener;
+    private final ScFrameClock.OnFrameListener mFrameListener;
+
+    private ScPlaybackSession mSession = null;
+    private ScPlayerButton.OnEventListener mEventListener = null;
+    private ColorFilter mColorFilter = null;
+    private byte[] mEnvelope = null;
+    private boolean mUpdating = false;
+    private int mPriority = ScPlayerDrawable.PRIORITY_VISIBLE;
+
+    private int mColor = Color.WHITE;
+    private int mAlpha = 255;
+    private float mFontSize;
+    private float mVolume = ScPlayerButton.VOLUME;
+    private boolean mShowEnvelope = false;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    public ScPlayerDrawable(Context context) {
+        // Holders
+        this.mContext = context.getApplicationContext();
+        this.mLabel = new ScPlayerRenderer.Label();
+        this.mArea = new Rect();
+        this.mFontSize = ScPlayerDrawable.FONT_SIZE *
+                context.getResources().getDisplayMetrics().density;
+
+        // Create the listeners just one time
+        this.mFrameListener = new ScFrameClock.OnFrameListener() {
+            @Override
+            public void onFrame() {
+                invalidateSelf();
+            }
+        };
+        this.mProbeListener = new ScDurationProbe.OnProbeListener() {
+            @Override
+            public void onDurationProbed(String source, int duration, int position) {
+                // Check if the source is still in the queue
+                if (mSession.setDuration(source, duration))
+                    invalidateSelf();
+            }
+        };
+        this.mEnvelopeListener = new ScEnvelopeDecoder.OnEnvelopeListener() {
+            @Override
+            public void onEnvelopeDecoded(String source, byte[] envelope) {
+                // Check if the source is still the same
+                String current = mSession.getSource();
+                if (current != null && current.equals(source)) {
+                    mEnvelope = envelope;
+                    invalidateSelf();
+                }
+            }
+        };
+        this.mSessionCallback = new ScPlaybackSession.Callback() {
+            @Override
+            public void onSessionPrepared(MediaPlayer player) {
+                // Event
+                if (mEventListener instanceof ScPlayerButton.OnPlaybackEventListener)
+                    ((ScPlayerButton.OnPlaybackEventListener) mEventListener).onPrepared(player);
+            }
+
+            @Override
+            public void onSessionStarted(MediaPlayer player) {
+                // Show the playing state
+                startUpdate();
+                invalidateSelf();
+
+                // Event
+                if (mEventListener != null)
+                    mEventListener.onStartPlay(player);
+            }
+
+            @Override
+            public void onSessionAdvanced(int index) {
+                // The envelope of the new item
+                decodeMediaEnvelope();
+                invalidateSelf();
+            }
+
+            @Override
+            public void onSessionStopped(boolean started) {
+                // Release the state
+                stopUpdate();
+                invalidateSelf();
+
+                // Event
+                if (started && mEventListener != null)
+                    mEventListener.onStopPlay();
+            }
+
+            @Override
+            public void onSessionError(int what, int extra) {
+                // Release the state
+                stopUpdate();
+                invalidateSelf();
+
+                // Event
+                if (mEventListener instanceof ScPlayerButton.OnPlaybackEventListener)
+                    ((ScPlayerButton.OnPlaybackEventListener) mEventListener).onError(what, extra);
+            }
+
+            @Override
+            public void onSessionBuffering(boolean buffering) {
+                // Event
+                if (mEventListener instanceof ScPlayerButton.OnPlaybackEventListener)
+                    ((ScPlayerButton.OnPlaybackEventListener) mEventListener).onBuffering(buffering);
+            }
+        };
+
+        // Private session until bound to an item
+        this.mSession = ScPlaybackSession.create();
+        this.mSession.setVolume(this.mVolume);
+        this.mSession.attach(this.mSessionCallback);
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Stop waiting the durations and the envelope of the session sources
+     */
+    private void cancelMediaInfo() {
+        for (String source : this.mSession.getQueue())
+            ScDurationProbe.getInstance().cancel(source, this.mProbeListener);
+
+        String source = this.mSession.getSource();
+        if (source != null)
+            ScEnvelopeDecoder.getInstance().cancel(source, this.mEnvelopeListener);
+    }
+
+    /**
+     * Check if the drawable can request the media info
+     *
+     * @return true if visible and not hidden by the priority
+     */
+    private boolean canRequest() {
+        return this.isVisible() && this.mPriority != ScPlayerDrawable.PRIORITY_HIDDEN;
+    }
+
+    /**
+     * Retrieve the media envelope if needed.
+     * A not visible drawable will request it when visible.
+     */
+    private void decodeMediaEnvelope() {
+        // Reset and request
+        this.mEnvelope = null;
+        String source = this.mSession.getSource();
+        if (this.mShowEnvelope && source != null && this.canRequest())
+            ScEnvelopeDecoder.getInstance().decode(
+                    this.mContext, source, this.mEnvelopeListener, this.mPriority);
+    }
+
+    /**
+     * Retrieve the durations not yet known and the envelope if missing, or update the
+     * priority of the pending ones.
+     * The durations are read from the persistent index on the worker if known.
+     */
+    private void requestMediaInfo() {
+        // Check if needed
+        if (!this.canRequest())
+            return;
+
+        // Retrieve the media info only if not known
+        String[] sources = this.mSession.getQueue();
+        for (int index = 0; index < sources.length; index++) {
+            // Check if already known
+            if (this.mSession.getItemDuration(index) != ScDurationProbe.UNKNOWN)
+                continue;
+
+            ScDurationProbe.getInstance().probe(
+                    this.mContext, sources[index], this.mProbeListener, this.mPriority);
+        }
+        if (this.mEnvelope == null)
+            this.decodeMediaEnvelope();
+    }
+
+    /**
+     * Change the session queue and retrieve the media info not yet known
+     *
+     * @param queue the media paths
+     */
+    private void applyQueue(String[] queue) {
+        // Stop waiting the previous duration and envelope
+        this.cancelMediaInfo();
+        this.mSession.setQueue(queue);
+        this.mEnvelope = null;
+        this.requestMediaInfo();
+    }
+
+    /**
+     * Leave the current session and attach to a new one
+     *
+     * @param session the new session
+     * @param queue   the media paths
+     */
+    private void adoptSession(ScPlaybackSession session, String[] queue) {
+        // Leave the current session, a private one cannot be recovered anymore
+        if (this.mSession.getId() == ScPlaybackSession.NO_ID)
+            this.mSession.stop();
+        this.cancelMediaInfo();
+        this.mSession.detach(this.mSessionCallback);
+        this.stopUpdate();
+
+        // Attach to the new session
+        this.mSession = session;
+        this.mSession.setVolume(this.mVolume);
+        this.mSession.attach(this.mSessionCallback);
+        this.applyQueue(queue);
+        if (this.mSession.isActive())
+            this.startUpdate();
+        this.invalidateSelf();
+    }
+
+    /**
+     * Start the periodic update of the time label and the preparing arc
+     */
+    private void startUpdate() {
+        if (!this.mUpdating) {
+            this.mUpdating = true;
+            ScFrameClock.getInstance().add(this.mFrameListener);
+        }
+    }
+
+    /**
+     * Stop the periodic update
+     */
+    private void stopUpdate() {
+        if (this.mUpdating) {
+            this.mUpdating = false;
+            ScFrameClock.getInstance().remove(this.mFrameListener);
+        }
+    }
+
+    /**
+     * Apply the drawable alpha to the foreground color
+     *
+     * @return the color
+     */
+    private int findColor() {
+        int alpha = Color.alpha(this.mColor) * this.mAlpha / 255;
+        return (alpha << 24) | (this.mColor & 0x00ffffff);
+    }
+
+
+    // ***************************************************************************************
+    // Override
+
+    /**
+     * Draw the player by the playback status
+     *
+     * @param canvas to draw
+     */
+    @Override
+    public void draw(Canvas canvas) {
+        long start = ScPlayerMetrics.now();
+        ScPlayerRenderer renderer = ScPlayerRenderer.getInstance();
+        Rect bounds = this.getBounds();
+        int color = this.findColor();
+        boolean active = this.mSession.isActive();
+
+        // If idle try to use the shared rasterized state, the filter cannot be cached
+        if (!active && this.mEnvelope == null && this.mColorFilter == null) {
+            this.mLabel.set(this.mSession.getDuration());
+            if (renderer.drawIdle(
+                    this.mContext, canvas, bounds, this.mLabel, color, this.mFontSize)) {
+                ScPlayerMetrics.recordDrawTime(start);
+                return;
+            }
+        }
+
+        // Draw the time and reduce the drawing area by the time label height
+        renderer.setColorFilter(this.mColorFilter);
+        this.mArea.set(bounds);
+        this.mLabel.set(this.mSession.isPlaying() ?
+                this.mSession.getCurrentPosition() : this.mSession.getDuration());
+        renderer.drawTime(canvas, this.mArea, this.mLabel, color, this.mFontSize);
+
+        // By the status
+        if (this.mSession.isPreparing()) {
+            // Waiting for the media player
+            renderer.drawPreparing(canvas, this.mArea, color);
+
+        } else if (this.mEnvelope != null) {
+            // The whole media envelope with the played part
+            float progress = -1.0f;
+            int duration = this.mSession.getItemDuration();
+            if (this.mSession.isPlaying() && duration > 0)
+                progress = this.mSession.getItemPosition() / (float) duration;
+            renderer.drawEnvelope(canvas, this.mArea, this.mEnvelope, progress, color);
+
+        } else {
+            // The play or stop icon
+            renderer.drawIcon(this.mContext, canvas, this.mArea, active, color);
+        }
+
+        renderer.setColorFilter(null);
+        ScPlayerMetrics.recordDrawTime(start);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (this.mAlpha != alpha) {
+            this.mAlpha = alpha;
+            this.invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return this.mAlpha;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        // The views hide their drawables when detached, so stop waiting the media info
+        boolean changed = super.setVisible(visible, restart);
+        if (changed) {
+            if (visible)
+                this.requestMediaInfo();
+            else
+                this.cancelMediaInfo();
+        }
+        return changed;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        this.mColorFilter = colorFilter;
+        this.invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Get the media playing status
+     *
+     * @return true if the media is playing
+     */
+    public boolean isPlaying() {
+        return this.mSession.isPlaying();
+    }
+
+    /**
+     * Get the media preparing status
+     *
+     * @return true if the player is preparing the media
+     */
+    public boolean isPreparing() {
+        return this.mSession.isPreparing();
+    }
+
+    /**
+     * Start to play the current media.
+     * The media will be prepared asynchronously and start to play when ready.
+     */
+    public void play() {
+        this.mSession.play(this.mContext);
+        if (this.mSession.isActive())
+            this.startUpdate();
+        this.invalidateSelf();
+    }
+
+    /**
+     * Stop to play the current media
+     */
+    public void stop() {
+        this.mSession.stop();
+    }
+
+    /**
+     * Play if stopped or stop if playing or preparing.
+     * Call this when the player is tapped.
+     */
+    public void toggle() {
+        if (this.mSession.isActive())
+            this.stop();
+        else
+            this.play();
+    }
+
+    /**
+     * Bind the player to a stable item id.
+     * The playback state is kept in a session tied to the id so the play survive the
+     * drawable recycling, the same sessions are shared with the ScPlayerButton.
+     *
+     * @param id     the stable item id
+     * @param source the media path
+     */
+    public void bind(long id, String source) {
+        // Check if already bound to the same item and the session not released
+        if (this.mSession.isBoundTo(id)) {
+            this.setSource(source);
+            return;
+        }
+
+        // Attach to the item session
+        this.adoptSession(ScPlaybackSession.obtain(id),
+                source == null ? new String[0] : new String[]{source});
+    }
+
+    /**
+     * Unbind the player from the current item.
+     * The item playback will continue and can be recovered binding the same id.
+     */
+    public void unbind() {
+        if (this.mSession.getId() != ScPlaybackSession.NO_ID)
+            this.adoptSession(ScPlaybackSession.create(), new String[0]);
+    }
+
+    /**
+     * Release the player.
+     * A private playback will be stopped while the playback of a bound item continue.
+     */
+    public void release() {
+        if (this.mSession.getId() == ScPlaybackSession.NO_ID)
+            this.mSession.stop();
+        this.cancelMediaInfo();
+        this.mSession.detach(this.mSessionCallback);
+        this.stopUpdate();
+    }
+
+
+    // ***************************************************************************************
+    // Public properties
+
+    /**
+     * Return the sound source path
+     *
+     * @return a path
+     */
+    public String getSource() {
+        return this.mSession.getSource();
+    }
+
+    /**
+     * Set the sound source path
+     *
+     * @param value the path
+     */
+    public void setSource(String value) {
+        String[] queue = value == null ? new String[0] : new String[]{value};
+        if (!Arrays.equals(this.mSession.getQueue(), queue)) {
+            this.applyQueue(queue);
+            this.invalidateSelf();
+        }
+    }
+
+
+    /**
+     * Return the foreground color
+     *
+     * @return the color
+     */
+    public int getColor() {
+        return this.mColor;
+    }
+
+    /**
+     * Set the foreground color
+     *
+     * @param value the color
+     */
+    public void setColor(int value) {
+        if (this.mColor != value) {
+            this.mColor = value;
+            this.invalidateSelf();
+        }
+    }
+
+
+    /**
+     * Return the font size
+     *
+     * @return the size in pixel
+     */
+    public float getFontSize() {
+        return this.mFontSize;
+    }
+
+    /**
+     * Set the font size
+     *
+     * @param value the size in pixel
+     */
+    public void setFontSize(float value) {
+        if (this.mFontSize != value) {
+            this.mFontSize = value;
+            this.invalidateSelf();
+        }
+    }
+
+
+    /**
+     * Return the player volume
+     *
+     * @return the volume
+     */
+    public float getVolume() {
+        return this.mVolume;
+    }
+
+    /**
+     * Set the player volume
+     *
+     * @param value the volume (0..1)
+     */
+    public void setVolume(float value) {
+        this.mVolume = value;
+        this.mSession.setVolume(value);
+    }
+
+
+    /**
+     * Return the priority of the background requests
+     *
+     * @return the priority
+     */
+    public int getPriority() {
+        return this.mPriority;
+    }
+
+    /**
+     * Set the priority of the background requests (duration and envelope).
+     * The lower values are executed first: PRIORITY_VISIBLE for a drawable on the screen
+     * and greater values for the ones farther from it. PRIORITY_HIDDEN cancel the pending
+     * requests that will be done again when the priority change.
+     *
+     * @param value the priority
+     */
+    public void setPriority(int value) {
+        // Check for the limits
+        if (value < ScPlayerDrawable.PRIORITY_HIDDEN)
+            value = ScPlayerDrawable.PRIORITY_HIDDEN;
+
+        // Apply
+        if (this.mPriority != value) {
+            this.mPriority = value;
+            if (this.canRequest())
+                this.requestMediaInfo();
+            else
+                this.cancelMediaInfo();
+        }
+    }
+
+
+    /**
+     * Return true if showing the media envelope
+     *
+     * @return the status
+     */
+    public boolean getShowEnvelope() {
+        return this.mShowEnvelope;
+    }
+
+    /**
+     * Show the whole media envelope instead of the play icon.
+     * The envelope is decoded in background.
+     *
+     * @param value true for show the envelope
+     */
+    public void setShowEnvelope(boolean value) {
+        if (this.mShowEnvelope != value) {
+            this.mShowEnvelope = value;
+            this.decodeMediaEnvelope();
+            this.invalidateSelf();
+        }
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Set the event listener.
+     * If the listener implement ScPlayerButton.OnPlaybackEventListener will receive also
+     * the detailed playback events.
+     *
+     * @param listener the listener
+     */
+    public void setOnEventListener(ScPlayerButton.OnEventListener listener) {
+        this.mEventListener = listener;
+    }
+
+}
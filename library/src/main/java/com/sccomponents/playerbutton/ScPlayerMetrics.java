@@ -0,0 +1,534 @@
+package com.sccomponents.playerbutton;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Process wide performance metrics of the player buttons.
+ * The metrics are disabled by default and are enabled setting a listener, while
+ * disabled the timings are not measured at all. All the counters are atomic so the
+ * recording never lock the main thread or the workers.
+ * The timings are collected in histograms with power of two buckets in microseconds,
+ * the live resources are counted always.
+ */
+
+@SuppressWarnings("unused")
+public final class ScPlayerMetrics {
+
+    // ***************************************************************************************
+    // Constants
+
+    public static final int BUCKETS = 32;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static volatile boolean mEnabled = false;
+    private static OnMetricsListener mListener = null;
+
+    private static final Recorder mTapLatency = new Recorder();
+    private static final Recorder mPrepareTime = new Recorder();
+    private static final Recorder mProbeTime = new Recorder();
+    private static final Recorder mDrawTime = new Recorder();
+
+    private static final AtomicLong mCapturedFrames = new AtomicLong();
+    private static final AtomicLong mDrawnFrames = new AtomicLong();
+    private static final AtomicLong mLivePlayers = new AtomicLong();
+    private static final AtomicLong mLiveEngines = new AtomicLong();
+    private static final AtomicLong mLiveWorkers = new AtomicLong();
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * Lock-free histogram recorder
+     */
+    private static final class Recorder {
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(ScPlayerMetrics.BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        /**
+         * Add a value
+         *
+         * @param value the value in microseconds
+         */
+        void record(long value) {
+            // Find the bucket by the highest bit
+            if (value < 0) value = 0;
+            int bucket = Math.min(
+                    64 - Long.numberOfLeadingZeros(value), ScPlayerMetrics.BUCKETS - 1);
+
+            this.mBuckets.incrementAndGet(bucket);
+            this.mCount.incrementAndGet();
+            this.mSum.addAndGet(value);
+
+            // Update the max
+            long max = this.mMax.get();
+            while (value > max && !this.mMax.compareAndSet(max, value))
+                max = this.mMax.get();
+        }
+
+        /**
+         * Copy the current values
+         *
+         * @return the histogram
+         */
+        Histogram snapshot() {
+            long[] buckets = new long[ScPlayerMetrics.BUCKETS];
+            for (int index = 0; index < buckets.length; index++)
+                buckets[index] = this.mBuckets.get(index);
+            return new Histogram(
+                    buckets, this.mCount.get(), this.mSum.get(), this.mMax.get());
+        }
+
+        /**
+         * Clear all the values
+         */
+        void reset() {
+            for (int index = 0; index < ScPlayerMetrics.BUCKETS; index++)
+                this.mBuckets.set(index, 0);
+            this.mCount.set(0);
+            this.mSum.set(0);
+            this.mMax.set(0);
+        }
+
+    }
+
+    /**
+     * Immutable copy of a timing histogram.
+     * The bucket at index i contains the values less than 2^i microseconds and not
+     * contained in the previous buckets.
+     */
+    public static final class Histogram {
+
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Histogram(long[] buckets, long count, long sum, long max) {
+            this.mBuckets = buckets;
+            this.mCount = count;
+            this.mSum = sum;
+            this.mMax = max;
+        }
+
+        /**
+         * Get the values count
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return this.mCount;
+        }
+
+        /**
+         * Get the sum of all the values
+         *
+         * @return the sum in microseconds
+         */
+        public long getSum() {
+            return this.mSum;
+        }
+
+        /**
+         * Get the max value
+         *
+         * @return the max in microseconds
+         */
+        public long getMax() {
+            return this.mMax;
+        }
+
+        /**
+         * Get the mean value
+         *
+         * @return the mean in microseconds or 0 if empty
+         */
+        public long getMean() {
+            return this.mCount == 0 ? 0 : this.mSum / this.mCount;
+        }
+
+        /**
+         * Get the values count of every bucket
+         *
+         * @return a copy of the buckets
+         */
+        public long[] getBuckets() {
+            return this.mBuckets.clone();
+        }
+
+        /**
+         * Get the exclusive upper bound of a bucket
+         *
+         * @param index the bucket index
+         * @return the bound in microseconds
+         */
+        public static long getBucketBound(int index) {
+            return 1L << index;
+        }
+
+        /**
+         * Estimate a percentile by the buckets.
+         * The result is the upper bound of the bucket containing the percentile, limited
+         * by the max value.
+         *
+         * @param percentile the percentile (0..100)
+         * @return the value in microseconds or 0 if empty
+         */
+        public long getPercentile(float percentile) {
+            // Check for empty values
+            if (this.mCount == 0)
+                return 0;
+
+            // Find the bucket
+            long rank = (long) Math.ceil(this.mCount * percentile / 100.0);
+            long seen = 0;
+            for (int index = 0; index < this.mBuckets.length; index++) {
+                seen += this.mBuckets[index];
+                if (seen >= rank)
+                    return Math.min(Histogram.getBucketBound(index), this.mMax);
+            }
+            return this.mMax;
+        }
+
+    }
+
+    /**
+     * Immutable copy of all the metrics
+     */
+    public static final class Snapshot {
+
+        private final Histogram mTapLatency;
+        private final Histogram mPrepareTime;
+        private final Histogram mProbeTime;
+        private final Histogram mDrawTime;
+        private final long mCapturedFrames;
+        private final long mDrawnFrames;
+        private final long mLivePlayers;
+        private final long mLiveEngines;
+        private final long mLiveWorkers;
+
+        private Snapshot() {
+            this.mTapLatency = ScPlayerMetrics.mTapLatency.snapshot();
+            this.mPrepareTime = ScPlayerMetrics.mPrepareTime.snapshot();
+            this.mProbeTime = ScPlayerMetrics.mProbeTime.snapshot();
+            this.mDrawTime = ScPlayerMetrics.mDrawTime.snapshot();
+            this.mCapturedFrames = ScPlayerMetrics.mCapturedFrames.get();
+            this.mDrawnFrames = ScPlayerMetrics.mDrawnFrames.get();
+            this.mLivePlayers = ScPlayerMetrics.mLivePlayers.get();
+            this.mLiveEngines = ScPlayerMetrics.mLiveEngines.get();
+            this.mLiveWorkers = ScPlayerMetrics.mLiveWorkers.get();
+        }
+
+        /**
+         * Get the time from the tap to the start of the playback
+         *
+         * @return the histogram
+         */
+        public Histogram getTapLatency() {
+            return this.mTapLatency;
+        }
+
+        /**
+         * Get the time needed to prepare the player or the engine
+         *
+         * @return the histogram
+         */
+        public Histogram getPrepareTime() {
+            return this.mPrepareTime;
+        }
+
+        /**
+         * Get the time needed to probe the media duration on the worker
+         *
+         * @return the histogram
+         */
+        public Histogram getProbeTime() {
+            return this.mProbeTime;
+        }
+
+        /**
+         * Get the time spent inside the component onDraw
+         *
+         * @return the histogram
+         */
+        public Histogram getDrawTime() {
+            return this.mDrawTime;
+        }
+
+        /**
+         * Get the wave frames received from the visualizer or from the engine
+         *
+         * @return the frames count
+         */
+        public long getCapturedFrames() {
+            return this.mCapturedFrames;
+        }
+
+        /**
+         * Get the wave frames drawn
+         *
+         * @return the frames count
+         */
+        public long getDrawnFrames() {
+            return this.mDrawnFrames;
+        }
+
+        /**
+         * Get the wave frames received but never drawn
+         *
+         * @return the frames count
+         */
+        public long getDroppedFrames() {
+            return Math.max(0, this.mCapturedFrames - this.mDrawnFrames);
+        }
+
+        /**
+         * Get the media players not yet released, the idle ones inside the pool included
+         *
+         * @return the players count
+         */
+        public long getLivePlayers() {
+            return this.mLivePlayers;
+        }
+
+        /**
+         * Get the audio engines not yet released
+         *
+         * @return the engines count
+         */
+        public long getLiveEngines() {
+            return this.mLiveEngines;
+        }
+
+        /**
+         * Get the background worker threads alive
+         *
+         * @return the threads count
+         */
+        public long getLiveWorkers() {
+            return this.mLiveWorkers;
+        }
+
+        /**
+         * Flat the snapshot in a key/value map for exporting.
+         * The timings are in microseconds.
+         *
+         * @return the map
+         */
+        public Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            Snapshot.putHistogram(map, "tap_latency", this.mTapLatency);
+            Snapshot.putHistogram(map, "prepare_time", this.mPrepareTime);
+            Snapshot.putHistogram(map, "probe_time", this.mProbeTime);
+            Snapshot.putHistogram(map, "draw_time", this.mDrawTime);
+            map.put("captured_frames", this.mCapturedFrames);
+            map.put("drawn_frames", this.mDrawnFrames);
+            map.put("dropped_frames", this.getDroppedFrames());
+            map.put("live_players", this.mLivePlayers);
+            map.put("live_engines", this.mLiveEngines);
+            map.put("live_workers", this.mLiveWorkers);
+            return map;
+        }
+
+        /**
+         * Add the histogram summary to the map
+         *
+         * @param map       the map
+         * @param name      the key prefix
+         * @param histogram the histogram
+         */
+        private static void putHistogram(Map<String, Long> map, String name,
+                                         Histogram histogram) {
+            map.put(name + ".count", histogram.getCount());
+            map.put(name + ".mean", histogram.getMean());
+            map.put(name + ".p50", histogram.getPercentile(50));
+            map.put(name + ".p95", histogram.getPercentile(95));
+            map.put(name + ".p99", histogram.getPercentile(99));
+            map.put(name + ".max", histogram.getMax());
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScPlayerMetrics() {
+    }
+
+
+    // ***************************************************************************************
+    // Recording
+
+    /**
+     * Get the start time of a timing
+     *
+     * @return the time in nanoseconds or 0 if the metrics are disabled
+     */
+    static long now() {
+        return ScPlayerMetrics.mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the elapsed time into the recorder
+     *
+     * @param recorder the recorder
+     * @param start    the start time, 0 if taken while disabled
+     */
+    private static void record(Recorder recorder, long start) {
+        if (start != 0 && ScPlayerMetrics.mEnabled)
+            recorder.record((System.nanoTime() - start) / 1000);
+    }
+
+    static void recordTapLatency(long start) {
+        ScPlayerMetrics.record(ScPlayerMetrics.mTapLatency, start);
+    }
+
+    static void recordPrepareTime(long start) {
+        ScPlayerMetrics.record(ScPlayerMetrics.mPrepareTime, start);
+    }
+
+    static void recordProbeTime(long start) {
+        ScPlayerMetrics.record(ScPlayerMetrics.mProbeTime, start);
+    }
+
+    static void recordDrawTime(long start) {
+        ScPlayerMetrics.record(ScPlayerMetrics.mDrawTime, start);
+    }
+
+    static void onFrameCaptured() {
+        if (ScPlayerMetrics.mEnabled)
+            ScPlayerMetrics.mCapturedFrames.incrementAndGet();
+    }
+
+    static void onFrameDrawn() {
+        if (ScPlayerMetrics.mEnabled)
+            ScPlayerMetrics.mDrawnFrames.incrementAndGet();
+    }
+
+    static void onPlayerCreated() {
+        ScPlayerMetrics.mLivePlayers.incrementAndGet();
+    }
+
+    static void onPlayerReleased() {
+        ScPlayerMetrics.mLivePlayers.decrementAndGet();
+    }
+
+    static void onEngineCreated() {
+        ScPlayerMetrics.mLiveEngines.incrementAndGet();
+    }
+
+    static void onEngineReleased() {
+        ScPlayerMetrics.mLiveEngines.decrementAndGet();
+    }
+
+    static void onWorkerStarted() {
+        ScPlayerMetrics.mLiveWorkers.incrementAndGet();
+    }
+
+    /**
+     * Wrap the worker thread body to count the thread while alive
+     *
+     * @param runnable the thread body
+     * @return the counted body
+     */
+    static Runnable track(final Runnable runnable) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ScPlayerMetrics.mLiveWorkers.incrementAndGet();
+                try {
+                    runnable.run();
+                } finally {
+                    ScPlayerMetrics.mLiveWorkers.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Send the current snapshot to the listener.
+     * Called on the main thread when a playback end.
+     */
+    static void report() {
+        if (ScPlayerMetrics.mListener != null)
+            ScPlayerMetrics.mListener.onMetrics(new Snapshot());
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Check if the metrics are enabled
+     *
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return ScPlayerMetrics.mEnabled;
+    }
+
+    /**
+     * Take a copy of the current metrics.
+     * Can be called from any thread.
+     *
+     * @return the snapshot
+     */
+    public static Snapshot getSnapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Clear the timings and the frames counters.
+     * The live resources counters are never cleared.
+     */
+    public static void reset() {
+        ScPlayerMetrics.mTapLatency.reset();
+        ScPlayerMetrics.mPrepareTime.reset();
+        ScPlayerMetrics.mProbeTime.reset();
+        ScPlayerMetrics.mDrawTime.reset();
+        ScPlayerMetrics.mCapturedFrames.set(0);
+        ScPlayerMetrics.mDrawnFrames.set(0);
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread with the metrics snapshot every time a playback end
+     */
+    public interface OnMetricsListener {
+
+        /**
+         * When a new snapshot is available
+         *
+         * @param snapshot the snapshot
+         */
+        void onMetrics(Snapshot snapshot);
+
+    }
+
+    /**
+     * Set the metrics listener.
+     * A not null listener enable the metrics, a null one disable them.
+     * Must be called from the main thread.
+     *
+     * @param listener the listener
+     */
+    public static void setOnMetricsListener(OnMetricsListener listener) {
+        ScPlayerMetrics.mListener = listener;
+        ScPlayerMetrics.mEnabled = listener != null;
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.sccomponents.playerbutton;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.media.MediaPlayer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+
+/**
+ * Process wide media player coordinator.
+ * Keep a small pool of reusable players recycled by reset/setDataSource so the
+ * native player will not be created and destroyed on every play, and grant the
+ * exclusive playback: when an owner start to play the previous one will be stopped.
+ * The remote media are read through the disk cache.
+ * Since only one owner can play at the same time the live native players are bound to
+ * the playing one, its chained next and the idle ones. The idle players are released
+ * when the system is low on memory.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScPlayerPool implements ComponentCallbacks2 {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int MAX_IDLE_PLAYERS = 2;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScPlayerPool mInstance = null;
+
+    private final ArrayDeque<MediaPlayer> mIdlePlayers;
+    private Owner mActiveOwner = null;
+    private boolean mRegistered = false;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScPlayerPool() {
+        this.mIdlePlayers = new ArrayDeque<>();
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the pool
+     */
+    static ScPlayerPool getInstance() {
+        if (ScPlayerPool.mInstance == null)
+            ScPlayerPool.mInstance = new ScPlayerPool();
+        return ScPlayerPool.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Players
+
+    /**
+     * Get a player for the source and start to prepare it asynchronously.
+     * If possible an idle player will be reused instead of creating a new one.
+     * The listeners will be called on the main thread.
+     *
+     * @param context           the context
+     * @param source            the media path
+     * @param bufferingListener called when a remote media wait for the network, can be null
+     * @param preparedListener  called when the player is ready to play
+     * @param errorListener     called if the player fail
+     * @return the player in preparing state
+     * @throws IOException if the source cannot be read
+     */
+    MediaPlayer acquire(Context context, String source,
+                        ScHttpCache.OnBufferingListener bufferingListener,
+                        MediaPlayer.OnPreparedListener preparedListener,
+                        MediaPlayer.OnErrorListener errorListener) throws IOException {
+        // Listen the memory state
+        if (!this.mRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(this);
+            this.mRegistered = true;
+        }
+
+        // Reuse or create
+        MediaPlayer player = this.mIdlePlayers.poll();
+        if (player == null) {
+            player = new MediaPlayer();
+            ScPlayerMetrics.onPlayerCreated();
+        }
+
+        try {
+            // Load the source
+            player.setOnPreparedListener(preparedListener);
+            player.setOnErrorListener(errorListener);
+            ScHttpCache.setDataSource(
+                    player, context.getApplicationContext(), source, bufferingListener);
+            player.prepareAsync();
+            return player;
+
+        } catch (IOException | RuntimeException ex) {
+            // Give back the player and propagate
+            this.recycle(player);
+            throw ex;
+        }
+    }
+
+    /**
+     * Give back the player to the pool.
+     * The player will be reset and kept for the next use or released if
+     * the pool is already full.
+     *
+     * @param player the player
+     */
+    void recycle(MediaPlayer player) {
+        // Check for empty values
+        if (player == null)
+            return;
+
+        try {
+            // Clean the player state
+            player.setOnPreparedListener(null);
+            player.setOnErrorListener(null);
+            player.setOnCompletionListener(null);
+            player.setOnSeekCompleteListener(null);
+            player.reset();
+
+        } catch (Exception ex) {
+            // The player is in a bad state, never reuse it
+            ex.printStackTrace();
+            player.release();
+            ScPlayerMetrics.onPlayerReleased();
+            return;
+        }
+
+        // Keep or release
+        if (this.mIdlePlayers.size() < ScPlayerPool.MAX_IDLE_PLAYERS)
+            this.mIdlePlayers.offer(player);
+        else {
+            player.release();
+            ScPlayerMetrics.onPlayerReleased();
+        }
+    }
+
+
+    /**
+     * Release all the idle players and the kept clip tracks
+     */
+    void trim() {
+        MediaPlayer player;
+        while ((player = this.mIdlePlayers.poll()) != null) {
+            player.release();
+            ScPlayerMetrics.onPlayerReleased();
+        }
+        ScClipCache.trim();
+    }
+
+
+    // ***************************************************************************************
+    // Memory callbacks
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            this.trim();
+    }
+
+    @Override
+    public void onLowMemory() {
+        this.trim();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {
+    }
+
+
+    // ***************************************************************************************
+    // Exclusive playback
+
+    /**
+     * Take the exclusive playback.
+     * If another owner is playing it will be notified to stop.
+     *
+     * @param owner the new owner
+     */
+    void requestPlayback(Owner owner) {
+        // Check if already the owner
+        Owner previous = this.mActiveOwner;
+        if (previous == owner)
+            return;
+
+        // Change the owner and stop the previous one
+        this.mActiveOwner = owner;
+        if (previous != null)
+            previous.onPlaybackPreempted();
+    }
+
+    /**
+     * Leave the exclusive playback
+     *
+     * @param owner the owner
+     */
+    void abandonPlayback(Owner owner) {
+        if (this.mActiveOwner == owner)
+            this.mActiveOwner = null;
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Who own the playback
+     */
+    interface Owner {
+
+        /**
+         * When another owner take the playback
+         */
+        void onPlaybackPreempted();
+
+    }
+
+}
@@ -0,0 +1,375 @@
+package com.sccomponents.playerbutton;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.graphics.drawable.DrawableCompat;
+
+import com.sccomponents.playerbutton.core.ScIconFit;
+import com.sccomponents.playerbutton.core.ScTimeFormat;
+
+
+/**
+ * Flyweight renderer shared by all the players.
+ * The paints, the icons, the points buffer and the temporary rectangles are created
+ * one time for the whole process, every player keep only its own state (the time label,
+ * the colors, the envelope) and pass it to the drawing methods.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScPlayerRenderer {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int PREPARING_ROUND_TIME = 1000; // Milliseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScPlayerRenderer mInstance = null;
+
+    private final Paint mTimePaint;
+    private final Paint mWavePaint;
+    private final Paint mIconPaint;
+    private final ScWaveRenderer mWaveRenderer;
+    private final ScIdleCache.Key mIdleKey;
+    private final Rect mTextBounds;
+    private final Rect mIdleArea;
+    private final RectF mArcBounds;
+    private final int[] mIconBounds;
+
+    private Drawable mPlayIcon = null;
+    private Drawable mStopIcon = null;
+    private int mPlayIconTint = Color.WHITE;
+    private int mStopIconTint = Color.WHITE;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * The time label of a player.
+     * The characters are written only when the displayed value change so no any object
+     * will be created while drawing.
+     */
+    static final class Label {
+
+        final char[] chars = new char[ScTimeFormat.LENGTH];
+        int length = 0;
+        private int mSeconds = 0;
+
+        /**
+         * Format milliseconds in the below format:
+         * - If have hours: HH:MM
+         * - If NO have hours: MM:SS
+         * - If the duration is unknown: --:--
+         *
+         * @param duration the duration in milliseconds or UNKNOWN
+         */
+        void set(int duration) {
+            // Check if the displayed value is changed
+            int total = duration < 0 ? ScDurationProbe.UNKNOWN : duration / 1000;
+            if (this.length > 0 && this.mSeconds == total)
+                return;
+
+            // Store and format
+            this.mSeconds = total;
+            this.length = ScTimeFormat.format(total, this.chars);
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScPlayerRenderer() {
+        this.mTimePaint = new Paint();
+        this.mTimePaint.setAntiAlias(true);
+        this.mTimePaint.setTypeface(Typeface.DEFAULT);
+
+        this.mWavePaint = new Paint();
+        this.mWavePaint.setAntiAlias(true);
+        this.mWavePaint.setStrokeWidth(2.0f);
+        this.mWavePaint.setStyle(Paint.Style.STROKE);
+        this.mWavePaint.setStrokeCap(Paint.Cap.ROUND);
+
+        this.mIconPaint = new Paint();
+
+        this.mWaveRenderer = new ScWaveRenderer();
+        this.mIdleKey = new ScIdleCache.Key();
+        this.mTextBounds = new Rect();
+        this.mIdleArea = new Rect();
+        this.mArcBounds = new RectF();
+        this.mIconBounds = new int[4];
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the renderer
+     */
+    static ScPlayerRenderer getInstance() {
+        if (ScPlayerRenderer.mInstance == null)
+            ScPlayerRenderer.mInstance = new ScPlayerRenderer();
+        return ScPlayerRenderer.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Load the icons.
+     * The icons are loaded just one time for all the players with the application
+     * context so no any activity will be retained.
+     *
+     * @param context the context
+     */
+    private void loadIcons(Context context) {
+        // Check if the icon is already loaded
+        Context appContext = context.getApplicationContext();
+        if (this.mPlayIcon == null) {
+            // Create a wrap of DrawableCompat to set tint when needs
+            Drawable drawable = ContextCompat
+                    .getDrawable(appContext, R.drawable.ic_play_arrow_white_24dp);
+            this.mPlayIcon = DrawableCompat.wrap(drawable).mutate();
+            DrawableCompat.setTint(this.mPlayIcon, this.mPlayIconTint);
+        }
+
+        // Check if the icon is already loaded
+        if (this.mStopIcon == null) {
+            // Create a wrap of DrawableCompat to set tint when needs
+            Drawable drawable = ContextCompat
+                    .getDrawable(appContext, R.drawable.ic_stop_white_24dp);
+            this.mStopIcon = DrawableCompat.wrap(drawable).mutate();
+            DrawableCompat.setTint(this.mStopIcon, this.mStopIconTint);
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Set the color filter applied to all the next drawings.
+     * Pass null to remove it after drawing.
+     * The icons filter is never touched since before LOLLIPOP the tint is applied by it,
+     * the icons are drawn inside a filtered layer instead.
+     *
+     * @param filter the filter
+     */
+    void setColorFilter(ColorFilter filter) {
+        this.mTimePaint.setColorFilter(filter);
+        this.mWavePaint.setColorFilter(filter);
+        this.mIconPaint.setColorFilter(filter);
+    }
+
+    /**
+     * Draw the time label and fix the remain area
+     *
+     * @param canvas   the canvas
+     * @param area     the bounds, will be reduced by the label height
+     * @param label    the label
+     * @param color    the foreground color
+     * @param fontSize the font size in pixel
+     */
+    void drawTime(Canvas canvas, Rect area, Label label, int color, float fontSize) {
+        // Set the painter
+        this.mTimePaint.setColor(color);
+        this.mTimePaint.setTextSize(fontSize);
+
+        // Get the dimension and calculate the position
+        this.mTimePaint.getTextBounds(label.chars, 0, label.length, this.mTextBounds);
+        int x = area.left + (area.width() - this.mTextBounds.width()) / 2;
+        int y = area.bottom;
+
+        // Draw the text on the canvas
+        int margin = 20;
+        canvas.drawText(label.chars, 0, label.length, x, y - margin, this.mTimePaint);
+
+        // Reduce the drawing area
+        area.bottom -= this.mTextBounds.height() + margin;
+    }
+
+    /**
+     * Draw the wave form inside the area less a margin
+     *
+     * @param canvas   the canvas
+     * @param area     the bounds
+     * @param data     the data to visualize
+     * @param style    the drawing style
+     * @param analyzer the spectrum state, used only by the spectrum style
+     * @param color    the foreground color
+     */
+    void drawWave(Canvas canvas, Rect area, byte[] data, int style,
+                  ScSpectrumAnalyzer analyzer, int color) {
+        // Apply margin
+        int margin = 10;
+        area.set(
+                area.left + margin, area.top + margin,
+                area.right - margin, area.bottom - margin
+        );
+
+        // Draw the reduced wave on canvas
+        this.mWavePaint.setColor(color);
+        this.mWaveRenderer.draw(canvas, area, data, style, analyzer, this.mWavePaint);
+    }
+
+    /**
+     * Draw the whole media envelope inside the area less a margin.
+     * The played part will be draw with the foreground color and the remaining part with
+     * a faded color.
+     *
+     * @param canvas   the canvas
+     * @param area     the bounds
+     * @param envelope the unsigned 8 bit peaks
+     * @param progress the played fraction (0..1) or negative if not playing
+     * @param color    the foreground color
+     */
+    void drawEnvelope(Canvas canvas, Rect area, byte[] envelope, float progress, int color) {
+        // Apply margin
+        int margin = 10;
+        area.set(
+                area.left + margin, area.top + margin,
+                area.right - margin, area.bottom - margin
+        );
+
+        // Draw the envelope on canvas
+        this.mWavePaint.setColor(color);
+        this.mWaveRenderer.drawEnvelope(canvas, area, envelope, progress, this.mWavePaint);
+    }
+
+    /**
+     * Draw the preparing state as a rotating arc.
+     * The caller must keep invalidating while preparing.
+     *
+     * @param canvas the canvas
+     * @param area   the bounds
+     * @param color  the foreground color
+     */
+    void drawPreparing(Canvas canvas, Rect area, int color) {
+        // Calculate the proportional area
+        int margin = 10;
+        float radius = Math.min(area.width(), area.height()) / 2.0f - margin;
+        this.mArcBounds.set(
+                area.centerX() - radius, area.centerY() - radius,
+                area.centerX() + radius, area.centerY() + radius
+        );
+
+        // Find the start angle by the time
+        long time = SystemClock.uptimeMillis() % ScPlayerRenderer.PREPARING_ROUND_TIME;
+        float angle = 360.0f * time / ScPlayerRenderer.PREPARING_ROUND_TIME;
+
+        // Draw the arc
+        this.mWavePaint.setColor(color);
+        canvas.drawArc(this.mArcBounds, angle, 270.0f, false, this.mWavePaint);
+    }
+
+    /**
+     * Draw the "play" or the "stop" icon
+     *
+     * @param context the context
+     * @param canvas  the canvas
+     * @param area    the bounds
+     * @param stop    true for the "stop" icon
+     * @param color   the foreground color
+     */
+    void drawIcon(Context context, Canvas canvas, Rect area, boolean stop, int color) {
+        // Load the icons
+        this.loadIcons(context);
+
+        // Calculate the proportional area
+        ScIconFit.fit(area.left, area.top, area.right, area.bottom, this.mIconBounds);
+
+        // Get the icon and apply the tint only if changed since the tint will
+        // create a new color state list
+        Drawable icon;
+        if (stop) {
+            icon = this.mStopIcon;
+            if (this.mStopIconTint != color) {
+                this.mStopIconTint = color;
+                DrawableCompat.setTint(icon, color);
+            }
+
+        } else {
+            icon = this.mPlayIcon;
+            if (this.mPlayIconTint != color) {
+                this.mPlayIconTint = color;
+                DrawableCompat.setTint(icon, color);
+            }
+        }
+
+        // Draw the icon inside the area, through a layer if filtered
+        icon.setBounds(
+                this.mIconBounds[0], this.mIconBounds[1],
+                this.mIconBounds[2], this.mIconBounds[3]);
+        boolean filtered = this.mIconPaint.getColorFilter() != null;
+        if (filtered)
+            canvas.saveLayer(
+                    this.mIconBounds[0], this.mIconBounds[1],
+                    this.mIconBounds[2], this.mIconBounds[3],
+                    this.mIconPaint, Canvas.ALL_SAVE_FLAG);
+        icon.draw(canvas);
+        if (filtered)
+            canvas.restore();
+    }
+
+    /**
+     * Draw the idle state using the shared rasterized cache.
+     * If the same idle state was already drawn by any other player the bitmap will be
+     * reused, otherwise the state will be rasterized and stored.
+     *
+     * @param context  the context
+     * @param canvas   the canvas
+     * @param bounds   the player bounds
+     * @param label    the duration label
+     * @param color    the foreground color
+     * @param fontSize the font size in pixel
+     * @return false if the state cannot be cached
+     */
+    boolean drawIdle(Context context, Canvas canvas, Rect bounds, Label label, int color,
+                     float fontSize) {
+        // Check the dimension
+        int width = bounds.width();
+        int height = bounds.height();
+        ScIdleCache cache = ScIdleCache.getInstance();
+        if (!cache.canCache(width, height))
+            return false;
+
+        // Find the key
+        this.mIdleKey.set(
+                width, height, color, fontSize, R.drawable.ic_play_arrow_white_24dp,
+                label.chars, label.length);
+
+        // Rasterize if not cached
+        Bitmap bitmap = cache.get(this.mIdleKey);
+        if (bitmap == null) {
+            // Draw the state inside the bitmap
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Canvas offscreen = new Canvas(bitmap);
+            this.mIdleArea.set(0, 0, width, height);
+            this.drawTime(offscreen, this.mIdleArea, label, color, fontSize);
+            this.drawIcon(context, offscreen, this.mIdleArea, false, color);
+
+            // Store
+            cache.put(this.mIdleKey, bitmap);
+        }
+
+        // Blit
+        canvas.drawBitmap(bitmap, bounds.left, bounds.top, null);
+        return true;
+    }
+
+}
@@ -0,0 +1,259 @@
+package com.sccomponents.playerbutton;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Bounded background queue for the per source preparation like the duration probe and
+ * the envelope decoding.
+ * The tasks are executed by priority instead of by request order: the rows visible on
+ * the screen come first in reading order, then the rows ahead of the scroll direction
+ * by distance, then the detached ones. The rows left behind by the scroll are cancelled
+ * by their owners.
+ * The workers count and the pending tasks are bounded, when the pending budget is
+ * exceeded the lowest priority task is dropped and its owner notified.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScPrepareScheduler {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int PRIORITY_BEHIND = -1;
+    static final int PRIORITY_VISIBLE = 0;
+    static final int PRIORITY_DETACHED = Integer.MAX_VALUE;
+
+    private static final int CONCURRENCY = 2;
+    private static final int MAX_PENDING = 64;
+    private static final int BUCKETS = 8; // Per viewport
+    private static final int KEEP_ALIVE = 5; // Seconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScPrepareScheduler mInstance = null;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final PriorityBlockingQueue<Runnable> mQueue;
+    private int mMaxPending = ScPrepareScheduler.MAX_PENDING;
+    private int mDirection = 0;
+    private long mSequence = 0;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * A preparation task.
+     * The work is done on the worker, the drop is notified on the main thread.
+     */
+    abstract static class Task implements Runnable, Comparable<Task> {
+
+        private int mPriority = ScPrepareScheduler.PRIORITY_DETACHED;
+        private long mSequence = 0;
+
+        /**
+         * Do the work.
+         * NOTE that this method is blocking and called on the worker.
+         */
+        abstract void work();
+
+        /**
+         * Called when the task was removed from the queue to keep the pending budget
+         */
+        abstract void onDropped();
+
+        @Override
+        public final void run() {
+            this.work();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            // Lower priority value first, then by request order
+            if (this.mPriority != other.mPriority)
+                return this.mPriority < other.mPriority ? -1 : 1;
+            return this.mSequence < other.mSequence ? -1 :
+                    this.mSequence > other.mSequence ? 1 : 0;
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScPrepareScheduler() {
+        // The workers will die when there is nothing to prepare
+        this.mQueue = new PriorityBlockingQueue<>();
+        this.mExecutor = new ThreadPoolExecutor(
+                ScPrepareScheduler.CONCURRENCY, ScPrepareScheduler.CONCURRENCY,
+                ScPrepareScheduler.KEEP_ALIVE, TimeUnit.SECONDS, this.mQueue,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(ScPlayerMetrics.track(runnable), "ScPrepareScheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the shared instance
+     *
+     * @return the scheduler
+     */
+    static ScPrepareScheduler getInstance() {
+        if (ScPrepareScheduler.mInstance == null)
+            ScPrepareScheduler.mInstance = new ScPrepareScheduler();
+        return ScPrepareScheduler.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Drop the lowest priority tasks until the pending budget is respected
+     */
+    private void trim() {
+        while (this.mQueue.size() > this.mMaxPending) {
+            // Find the lowest priority
+            Task lowest = null;
+            for (Runnable runnable : this.mQueue) {
+                Task task = (Task) runnable;
+                if (lowest == null || task.compareTo(lowest) > 0)
+                    lowest = task;
+            }
+
+            // Remove and notify, the queue may be already drained by the workers
+            if (lowest == null || !this.mExecutor.remove(lowest))
+                return;
+            lowest.onDropped();
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Enqueue a task
+     *
+     * @param task     the task
+     * @param priority the priority, lower values first
+     * @throws IllegalArgumentException if the priority is negative, the rows left behind
+     *                                  must not request anything
+     */
+    void schedule(Task task, int priority) {
+        // Check the limits
+        if (priority < ScPrepareScheduler.PRIORITY_VISIBLE)
+            throw new IllegalArgumentException("Invalid priority " + priority);
+
+        task.mPriority = priority;
+        task.mSequence = this.mSequence++;
+        this.mExecutor.execute(task);
+        this.trim();
+    }
+
+    /**
+     * Change the priority of a pending task.
+     * The task will be enqueued again only if not started yet.
+     *
+     * @param task     the task
+     * @param priority the new priority
+     * @throws IllegalArgumentException if the priority is negative
+     */
+    void reschedule(Task task, int priority) {
+        // Check the limits
+        if (priority < ScPrepareScheduler.PRIORITY_VISIBLE)
+            throw new IllegalArgumentException("Invalid priority " + priority);
+
+        // Check if changed and still pending
+        if (task.mPriority == priority || !this.mExecutor.remove(task))
+            return;
+
+        task.mPriority = priority;
+        this.mExecutor.execute(task);
+    }
+
+    /**
+     * Remove a pending task
+     *
+     * @param task the task
+     * @return true if removed, false if already started or done
+     */
+    boolean cancel(Task task) {
+        return this.mExecutor.remove(task);
+    }
+
+    /**
+     * Find the priority of a row by its position inside the window.
+     * The visible rows are ordered by their top, the rows ahead of the scroll direction
+     * by their distance from the viewport.
+     *
+     * @param top      the row top inside the window
+     * @param bottom   the row bottom inside the window
+     * @param viewport the window height
+     * @return the priority or PRIORITY_BEHIND if the row was left behind by the scroll
+     */
+    int getPriority(int top, int bottom, int viewport) {
+        // Check for empty values
+        if (viewport <= 0)
+            return ScPrepareScheduler.PRIORITY_VISIBLE;
+
+        // Visible
+        int bucket = viewport / ScPrepareScheduler.BUCKETS + 1;
+        if (bottom > 0 && top < viewport)
+            return Math.max(top, 0) / bucket;
+
+        // Check the side, without a scroll both are ahead
+        boolean below = top >= viewport;
+        if (this.mDirection != 0 && below != this.mDirection > 0)
+            return ScPrepareScheduler.PRIORITY_BEHIND;
+
+        int distance = below ? top - viewport : -bottom;
+        return ScPrepareScheduler.BUCKETS + distance / bucket;
+    }
+
+    /**
+     * Track the scroll direction from the movement of a row
+     *
+     * @param delta the row movement inside the window in pixels
+     */
+    void setScrollDelta(int delta) {
+        // The content moving up mean scrolling toward the bottom
+        if (delta != 0)
+            this.mDirection = delta < 0 ? 1 : -1;
+    }
+
+    /**
+     * Set the budget
+     *
+     * @param concurrency the workers count
+     * @param maxPending  the max pending tasks
+     */
+    void setBudget(int concurrency, int maxPending) {
+        // Fix the values
+        concurrency = Math.max(1, concurrency);
+        this.mMaxPending = Math.max(1, maxPending);
+
+        // The max cannot be less than the core
+        if (concurrency > this.mExecutor.getMaximumPoolSize()) {
+            this.mExecutor.setMaximumPoolSize(concurrency);
+            this.mExecutor.setCorePoolSize(concurrency);
+        } else {
+            this.mExecutor.setCorePoolSize(concurrency);
+            this.mExecutor.setMaximumPoolSize(concurrency);
+        }
+        this.trim();
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.sccomponents.playerbutton;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Keep the active private sessions across the activity recreation.
+ * When the view state is saved the session is parked with a token written inside the
+ * saved state, the new view will claim it back on restore so the player prepared or
+ * playing is not released and not prepared again.
+ * The parked sessions are scoped to the activity lifecycle: if the activity is really
+ * finishing, or if no view claims the session after the recreation, the session will
+ * be stopped.
+ * NOTE that all the methods must be called from the main thread.
+ */
+
+final class ScSessionRetainer implements Application.ActivityLifecycleCallbacks {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final long NO_TOKEN = 0;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static ScSessionRetainer mInstance = null;
+
+    private final HashMap<Long, Parked> mParked;
+    private long mNextToken = ScSessionRetainer.NO_TOKEN;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * A parked session.
+     * The owner is null when the activity was destroyed for a configuration change and
+     * the session is waiting to be claimed by the new activity.
+     */
+    private static final class Parked {
+
+        ScPlaybackSession session;
+        Activity owner;
+
+    }
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    private ScSessionRetainer(Application application) {
+        this.mParked = new HashMap<>();
+        application.registerActivityLifecycleCallbacks(this);
+    }
+
+    /**
+     * Get the shared instance.
+     * The first call register the instance to the application lifecycle.
+     *
+     * @param context the context
+     * @return the retainer
+     */
+    static ScSessionRetainer getInstance(Context context) {
+        if (ScSessionRetainer.mInstance == null)
+            ScSessionRetainer.mInstance = new ScSessionRetainer(
+                    (Application) context.getApplicationContext());
+        return ScSessionRetainer.mInstance;
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Find the activity that hosts a context
+     *
+     * @param context the context
+     * @return the activity or null if not found
+     */
+    static Activity findActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity)
+                return (Activity) context;
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    /**
+     * Park a session owned by an activity.
+     * If the session is already parked the same token will be returned.
+     *
+     * @param activity the owner activity
+     * @param session  the session
+     * @return the token to claim the session back
+     */
+    long park(Activity activity, ScPlaybackSession session) {
+        // Check if already parked
+        for (Map.Entry<Long, Parked> entry : this.mParked.entrySet()) {
+            Parked parked = entry.getValue();
+            if (parked.session == session) {
+                parked.owner = activity;
+                return entry.getKey();
+            }
+        }
+
+        // Store
+        Parked parked = new Parked();
+        parked.session = session;
+        parked.owner = activity;
+
+        long token = ++this.mNextToken;
+        this.mParked.put(token, parked);
+        return token;
+    }
+
+    /**
+     * Claim back a parked session
+     *
+     * @param token the token
+     * @return the session or null if not parked anymore
+     */
+    ScPlaybackSession claim(long token) {
+        Parked parked = this.mParked.remove(token);
+        return parked == null ? null : parked.session;
+    }
+
+
+    // ***************************************************************************************
+    // Activity lifecycle
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        Iterator<Parked> iterator = this.mParked.values().iterator();
+        while (iterator.hasNext()) {
+            Parked parked = iterator.next();
+            if (parked.owner == activity) {
+                // The activity was not destroyed, the view still own the session
+                iterator.remove();
+
+            } else if (parked.owner == null) {
+                // Not claimed after the recreation
+                iterator.remove();
+                parked.session.stop();
+            }
+        }
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        Iterator<Parked> iterator = this.mParked.values().iterator();
+        while (iterator.hasNext()) {
+            Parked parked = iterator.next();
+            if (parked.owner != activity)
+                continue;
+
+            if (activity.isChangingConfigurations()) {
+                // Wait for the new activity, not retain the old one
+                parked.owner = null;
+
+            } else {
+                // Really finishing
+                iterator.remove();
+                parked.session.stop();
+            }
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.sccomponents.playerbutton;
+
+
+/**
+ * Reduce the visualizer FFT capture to a given number of bars.
+ * The FFT bins are grouped by a precomputed logarithmic frequency table so every bar
+ * cover the same musical range, and every bar level decay smoothly when the signal
+ * fall down. All the arrays are reused and rebuilt only when the bars count or the
+ * capture size change.
+ */
+
+final class ScSpectrumAnalyzer {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final float DECAY = 0.85f;
+    private static final float MAX_DECIBEL = (float) (20.0 * Math.log10(128.0 * Math.sqrt(2.0)));
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private int[] mBinTable = new int[1];
+    private float[] mLevels = new float[0];
+    private int mBars = 0;
+    private int mCaptureSize = 0;
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Build the logarithmic bins table.
+     * The bar N will cover the bins from mBinTable[N] to mBinTable[N + 1] excluded.
+     *
+     * @param bars        the bars count
+     * @param captureSize the FFT capture size in bytes
+     */
+    private void buildTable(int bars, int captureSize) {
+        // Holders
+        int bins = captureSize / 2;
+        this.mBinTable = new int[bars + 1];
+        this.mLevels = new float[bars];
+        this.mBars = bars;
+        this.mCaptureSize = captureSize;
+
+        // Skip the DC bin and distribute the others by a logarithmic scale
+        double ratio = Math.log(bins);
+        int previous = 0;
+        for (int bar = 0; bar <= bars; bar++) {
+            int bin = (int) Math.round(Math.exp(ratio * bar / bars));
+            if (bin <= previous) bin = previous + 1;
+            if (bin > bins) bin = bins;
+
+            this.mBinTable[bar] = bin;
+            previous = bin;
+        }
+    }
+
+    /**
+     * Get the magnitude of a bin.
+     * The FFT data contain the DC and the Nyquist real parts on the first two bytes
+     * followed by the real and imaginary parts of every other bin.
+     *
+     * @param fft the FFT data
+     * @param bin the bin index
+     * @return the magnitude
+     */
+    private static float getMagnitude(byte[] fft, int bin) {
+        // Nyquist frequency
+        if (bin == fft.length / 2)
+            return Math.abs(fft[1]);
+
+        // Others
+        float real = fft[bin * 2];
+        float imaginary = fft[bin * 2 + 1];
+        return (float) Math.sqrt(real * real + imaginary * imaginary);
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Update the bars levels with the FFT data
+     *
+     * @param fft  the FFT data, can be null
+     * @param bars the bars count
+     * @return the levels (0..1) of every bar
+     */
+    float[] update(byte[] fft, int bars) {
+        // Check for empty values
+        if (fft == null || bars <= 0) {
+            for (int bar = 0; bar < this.mLevels.length; bar++)
+                this.mLevels[bar] *= ScSpectrumAnalyzer.DECAY;
+            return this.mLevels;
+        }
+
+        // Rebuild the table if needed
+        if (this.mBars != bars || this.mCaptureSize != fft.length)
+            this.buildTable(bars, fft.length);
+
+        for (int bar = 0; bar < bars; bar++) {
+            // Find the max magnitude of the bar range
+            float magnitude = 0.0f;
+            for (int bin = this.mBinTable[bar]; bin < this.mBinTable[bar + 1]; bin++)
+                magnitude = Math.max(magnitude, ScSpectrumAnalyzer.getMagnitude(fft, bin));
+
+            // Convert in decibel and normalize
+            float level = magnitude <= 1.0f ? 0.0f :
+                    (float) (20.0 * Math.log10(magnitude)) / ScSpectrumAnalyzer.MAX_DECIBEL;
+            if (level > 1.0f) level = 1.0f;
+
+            // Smooth the fall
+            this.mLevels[bar] = Math.max(level, this.mLevels[bar] * ScSpectrumAnalyzer.DECAY);
+        }
+
+        return this.mLevels;
+    }
+
+}
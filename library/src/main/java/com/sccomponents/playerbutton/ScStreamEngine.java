@@ -0,0 +1,512 @@
+package com.sccomponents.playerbutton;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.nio.ShortBuffer;
+
+
+/**
+ * Decode the media and stream the PCM to an audio track.
+ * The decoding and the writing are done on a dedicated thread, the decoded chunks are
+ * copied inside reused arrays so no object is created while playing.
+ * Since the engine own the PCM the wave form is computed directly from the samples at
+ * the playback head and handed over to the wave capture at the display rate, so the
+ * visualization not need the RECORD_AUDIO permission and is in sync with the audio.
+ * NOTE that the public methods must be called from the main thread and that the engine
+ * is available only from JELLY_BEAN.
+ */
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class ScStreamEngine implements ScAudioEngine, Runnable {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int FRAME_INTERVAL = 16; // Milliseconds
+    private static final int TAIL_INTERVAL = 10; // Milliseconds
+    private static final int TAIL_MARGIN = 200; // Milliseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static Handler mHandler = null;
+
+    private final Object mLock = new Object();
+
+    private Context mContext = null;
+    private String mSource = null;
+    private Listener mListener = null;
+
+    private volatile AudioTrack mTrack = null;
+    private volatile ScWaveCapture mCapture = null;
+    private volatile boolean mReleased = false;
+    private volatile boolean mPlaying = false;
+    private volatile int mSampleRate = 0;
+    private volatile int mDuration = 0;
+    private volatile long mBaseFrame = 0;
+
+    private int mStartPosition = -1; // Guarded by the lock
+    private int mSeekPosition = -1; // Guarded by the lock
+    private boolean mSeekPrecise = true; // Guarded by the lock
+    private volatile float mVolume = 1.0f;
+
+    // Thread only
+    private short[] mChunk = new short[0];
+    private short[] mRing = null;
+    private byte[] mFrame = null;
+    private long mWritten = 0;
+    private long mLastFrameTime = 0;
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Get the main thread handler
+     *
+     * @return the handler
+     */
+    private static Handler getHandler() {
+        if (ScStreamEngine.mHandler == null)
+            ScStreamEngine.mHandler = new Handler(Looper.getMainLooper());
+        return ScStreamEngine.mHandler;
+    }
+
+    /**
+     * Create the streaming track
+     *
+     * @param sampleRate the sample rate
+     * @param channels   the channels count
+     * @return the track or null if cannot be created
+     */
+    @SuppressWarnings("deprecation")
+    private static AudioTrack createTrack(int sampleRate, int channels) {
+        // Check the channels
+        int config;
+        if (channels == 1)
+            config = AudioFormat.CHANNEL_OUT_MONO;
+        else if (channels == 2)
+            config = AudioFormat.CHANNEL_OUT_STEREO;
+        else
+            return null;
+
+        // Create
+        int size = AudioTrack.getMinBufferSize(
+                sampleRate, config, AudioFormat.ENCODING_PCM_16BIT);
+        if (size <= 0)
+            return null;
+
+        AudioTrack track = new AudioTrack(
+                AudioManager.STREAM_MUSIC, sampleRate, config,
+                AudioFormat.ENCODING_PCM_16BIT, size * 2, AudioTrack.MODE_STREAM);
+        if (track.getState() == AudioTrack.STATE_UNINITIALIZED) {
+            track.release();
+            return null;
+        }
+        return track;
+    }
+
+    /**
+     * Apply the volume to both the channels
+     *
+     * @param track  the track
+     * @param volume the volume (0..1)
+     */
+    @SuppressWarnings("deprecation")
+    private static void setVolume(AudioTrack track, float volume) {
+        track.setStereoVolume(volume, volume);
+    }
+
+    /**
+     * Notify on the main thread
+     *
+     * @param what  the event: 0 prepared, 1 completion, otherwise the error type
+     */
+    private void notify(final int what) {
+        ScStreamEngine.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                // Check if still needed
+                if (mReleased)
+                    return;
+
+                if (what == 0)
+                    mListener.onEnginePrepared(ScStreamEngine.this);
+                else if (what == 1)
+                    mListener.onEngineCompletion(ScStreamEngine.this);
+                else
+                    mListener.onEngineError(ScStreamEngine.this, what, 0);
+            }
+        });
+    }
+
+    /**
+     * Wait for the start or the release
+     *
+     * @return the start position or -1 if released
+     */
+    private int waitStart() {
+        synchronized (this.mLock) {
+            while (!this.mReleased && this.mStartPosition < 0) {
+                try {
+                    this.mLock.wait();
+                } catch (InterruptedException ex) {
+                    return -1;
+                }
+            }
+            return this.mReleased ? -1 : this.mStartPosition;
+        }
+    }
+
+    /**
+     * Take the pending seek request
+     *
+     * @param precise the precise flag holder
+     * @return the position or -1 if no request
+     */
+    private int takeSeek(boolean[] precise) {
+        synchronized (this.mLock) {
+            int position = this.mSeekPosition;
+            precise[0] = this.mSeekPrecise;
+            this.mSeekPosition = -1;
+            return position;
+        }
+    }
+
+    /**
+     * Move the decoder and the track to a new position.
+     * The decoding restart from the sync sample before the position, a fast move will
+     * play from there while a precise one drop the samples before the position.
+     *
+     * @param decoder  the decoder
+     * @param track    the track
+     * @param position the position in milliseconds
+     * @param precise  true for drop the samples before the position
+     * @return the first samples to write or null at the end of the media
+     */
+    private ShortBuffer moveTo(ScPcmDecoder decoder, AudioTrack track, int position,
+                               boolean precise) {
+        // The flush reset the head
+        track.pause();
+        track.flush();
+        long time = position * 1000L;
+        decoder.seekTo(time);
+        ShortBuffer samples = decoder.read();
+        int channels = decoder.getChannels();
+
+        if (precise) {
+            // Skip the chunks ending before the position and cut the first one
+            while (samples != null) {
+                long start = decoder.getPresentationTime();
+                long end = start +
+                        samples.remaining() / channels * 1000000L / this.mSampleRate;
+                if (end > time) {
+                    if (start < time) {
+                        int skip = (int) ((time - start) * this.mSampleRate / 1000000L);
+                        samples.position(samples.position() + skip * channels);
+                    }
+                    break;
+                }
+                samples = decoder.read();
+            }
+            this.mBaseFrame = (long) position * this.mSampleRate / 1000;
+
+        } else {
+            // The head start from the sync sample
+            long start = samples == null ? time : decoder.getPresentationTime();
+            this.mBaseFrame = start * this.mSampleRate / 1000000L;
+        }
+
+        this.mWritten = 0;
+        track.play();
+        return samples;
+    }
+
+    /**
+     * Write a chunk to the track and keep a mono copy inside the ring
+     *
+     * @param track    the track
+     * @param samples  the samples
+     * @param channels the channels count
+     */
+    private void write(AudioTrack track, ShortBuffer samples, int channels) {
+        // Copy inside the reused chunk
+        int count = samples.remaining();
+        if (this.mChunk.length < count)
+            this.mChunk = new short[count];
+        samples.get(this.mChunk, 0, count);
+
+        // Keep the mono mix for the wave form
+        int frames = count / channels;
+        for (int frame = 0; frame < frames; frame++) {
+            int sum = 0;
+            for (int channel = 0; channel < channels; channel++)
+                sum += this.mChunk[frame * channels + channel];
+            int slot = (int) ((this.mWritten + frame) % this.mRing.length);
+            this.mRing[slot] = (short) (sum / channels);
+        }
+
+        // Blocking write
+        int offset = 0;
+        while (offset < count && !this.mReleased && !this.isSeekPending()) {
+            int written = track.write(this.mChunk, offset, count - offset);
+            if (written <= 0)
+                break;
+            offset += written;
+        }
+        this.mWritten += frames;
+    }
+
+    /**
+     * Check if have a pending seek request
+     *
+     * @return true if pending
+     */
+    private boolean isSeekPending() {
+        synchronized (this.mLock) {
+            return this.mSeekPosition >= 0;
+        }
+    }
+
+    /**
+     * Publish the wave form at the playback head if the frame interval is elapsed.
+     * The frame is in the same unsigned 8 bit format of the visualizer.
+     *
+     * @param track the track
+     */
+    private void publishFrame(AudioTrack track) {
+        // Check for empty values
+        ScWaveCapture capture = this.mCapture;
+        if (capture == null)
+            return;
+
+        // Check the rate
+        long now = SystemClock.uptimeMillis();
+        if (now - this.mLastFrameTime < ScStreamEngine.FRAME_INTERVAL)
+            return;
+        this.mLastFrameTime = now;
+
+        // Holder
+        int size = capture.getCaptureSize();
+        if (this.mFrame == null || this.mFrame.length != size)
+            this.mFrame = new byte[size];
+
+        // The window ending at the head, not older than the ring
+        long end = Math.min(track.getPlaybackHeadPosition(), this.mWritten);
+        long oldest = this.mWritten - this.mRing.length;
+        for (int index = 0; index < size; index++) {
+            long frame = end - size + index;
+            int value = frame < 0 || frame < oldest ? 0 :
+                    this.mRing[(int) (frame % this.mRing.length)];
+            this.mFrame[index] = (byte) ((value >> 8) + 128);
+        }
+
+        // Hand over, the capture is not valid anymore if released
+        if (!capture.feed(this.mFrame))
+            this.mCapture = null;
+    }
+
+
+    // ***************************************************************************************
+    // Thread
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        ScPcmDecoder decoder = null;
+        AudioTrack track = null;
+        try {
+            // Open the media and create the track
+            decoder = new ScPcmDecoder(this.mContext, this.mSource);
+            ShortBuffer samples = decoder.read();
+            int channels = decoder.getChannels();
+            this.mSampleRate = decoder.getSampleRate();
+            this.mDuration = (int) (decoder.getDuration() / 1000);
+
+            track = ScStreamEngine.createTrack(this.mSampleRate, channels);
+            if (track == null || samples == null) {
+                this.notify(MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+                return;
+            }
+            this.mTrack = track;
+            this.mRing = new short[Math.max(this.mSampleRate / 2, 4096)];
+
+            // Wait for the start
+            this.notify(0);
+            int position = this.waitStart();
+            if (position < 0)
+                return;
+
+            // Play
+            ScStreamEngine.setVolume(track, this.mVolume);
+            if (position > 0)
+                samples = this.moveTo(decoder, track, position, true);
+            else
+                track.play();
+            this.mPlaying = true;
+
+            // Stream
+            boolean[] precise = new boolean[1];
+            long tailEnd = -1;
+            while (!this.mReleased) {
+                // Seek
+                int seek = this.takeSeek(precise);
+                if (seek >= 0) {
+                    samples = this.moveTo(decoder, track, seek, precise[0]);
+                    tailEnd = -1;
+                }
+
+                // End of the media, wait the track play the tail
+                if (samples == null) {
+                    // The stop let the track play the written frames, the head could not
+                    // reach the last one on some devices so wait no more than the tail
+                    long head = track.getPlaybackHeadPosition();
+                    if (tailEnd < 0) {
+                        track.stop();
+                        tailEnd = SystemClock.uptimeMillis() + ScStreamEngine.TAIL_MARGIN +
+                                Math.max(0, this.mWritten - head) * 1000 / this.mSampleRate;
+                    }
+                    if (head >= this.mWritten || SystemClock.uptimeMillis() >= tailEnd)
+                        break;
+                    this.publishFrame(track);
+                    SystemClock.sleep(ScStreamEngine.TAIL_INTERVAL);
+                    continue;
+                }
+
+                // Write and visualize
+                this.write(track, samples, decoder.getChannels());
+                this.publishFrame(track);
+                samples = decoder.read();
+            }
+
+            // Completion
+            this.mPlaying = false;
+            if (!this.mReleased)
+                this.notify(1);
+
+        } catch (Exception ex) {
+            // Print the error on the stack and notify
+            ex.printStackTrace();
+            this.mPlaying = false;
+            this.notify(this.mTrack == null ?
+                    MediaPlayer.MEDIA_ERROR_UNSUPPORTED : MediaPlayer.MEDIA_ERROR_UNKNOWN);
+
+        } finally {
+            // Release all
+            this.mTrack = null;
+            if (track != null) {
+                try {
+                    track.stop();
+                } catch (IllegalStateException ex) {
+                    // Never played
+                }
+                track.release();
+            }
+            if (decoder != null)
+                decoder.release();
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    @Override
+    public void prepare(Context context, String source, Listener listener) {
+        this.mContext = context.getApplicationContext();
+        this.mSource = source;
+        this.mListener = listener;
+
+        Thread thread = new Thread(ScPlayerMetrics.track(this), "ScStreamEngine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void start(int position) {
+        synchronized (this.mLock) {
+            this.mStartPosition = Math.max(0, position);
+            this.mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (this.mLock) {
+            this.mReleased = true;
+            this.mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return this.mPlaying;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        AudioTrack track = this.mTrack;
+        if (track == null || this.mSampleRate == 0)
+            return 0;
+
+        try {
+            long frame = this.mBaseFrame + track.getPlaybackHeadPosition();
+            return (int) (frame * 1000 / this.mSampleRate);
+
+        } catch (IllegalStateException ex) {
+            // Released meanwhile
+            return 0;
+        }
+    }
+
+    @Override
+    public int getDuration() {
+        return this.mDuration;
+    }
+
+    @Override
+    public void seekTo(int position, boolean precise) {
+        // A new request replace the pending one
+        synchronized (this.mLock) {
+            this.mSeekPosition = Math.max(0, position);
+            this.mSeekPrecise = precise;
+        }
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        this.mVolume = volume;
+        AudioTrack track = this.mTrack;
+        if (track != null)
+            ScStreamEngine.setVolume(track, volume);
+    }
+
+    @Override
+    public int getAudioSessionId() {
+        AudioTrack track = this.mTrack;
+        return track == null ? 0 : track.getAudioSessionId();
+    }
+
+    @Override
+    public boolean canFeedWave() {
+        return true;
+    }
+
+    @Override
+    public boolean setWaveCapture(ScWaveCapture capture) {
+        this.mCapture = capture;
+        return true;
+    }
+
+}
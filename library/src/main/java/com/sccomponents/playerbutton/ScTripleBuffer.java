@@ -0,0 +1,102 @@
+package com.sccomponents.playerbutton;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Lock-free triple buffer for handing over byte frames from one producer thread to
+ * one consumer thread.
+ * The producer always write on its own buffer and the consumer always read from its
+ * own buffer so a frame can never be torn. The buffers are swapped through the middle
+ * slot using an atomic index, no any object will be created after the construction.
+ */
+
+final class ScTripleBuffer {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int INDEX_MASK = 0x03;
+    private static final int FRESH_FLAG = 0x04;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private final byte[][] mBuffers;
+    private final AtomicInteger mMiddle;
+
+    private int mWriteIndex = 0; // Producer only
+    private int mReadIndex = 2; // Consumer only
+    private boolean mHasFrame = false; // Consumer only
+    private boolean mFresh = false; // Consumer only
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    ScTripleBuffer(int size) {
+        this.mBuffers = new byte[][]{new byte[size], new byte[size], new byte[size]};
+        this.mMiddle = new AtomicInteger(1);
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Get the buffers size
+     *
+     * @return the size in bytes
+     */
+    int getSize() {
+        return this.mBuffers[0].length;
+    }
+
+    /**
+     * Copy the frame and make it available to the consumer.
+     * Must be called only from the producer thread.
+     *
+     * @param frame the source data
+     */
+    void publish(byte[] frame) {
+        // Copy inside the producer buffer
+        byte[] buffer = this.mBuffers[this.mWriteIndex];
+        System.arraycopy(frame, 0, buffer, 0, Math.min(frame.length, buffer.length));
+
+        // Swap with the middle marking it as fresh
+        this.mWriteIndex = this.mMiddle
+                .getAndSet(this.mWriteIndex | ScTripleBuffer.FRESH_FLAG) & ScTripleBuffer.INDEX_MASK;
+    }
+
+    /**
+     * Get the latest published frame.
+     * Must be called only from the consumer thread and the returned buffer is valid
+     * until the next call.
+     *
+     * @return the frame or null if nothing was published yet
+     */
+    byte[] acquire() {
+        // Take the middle only if fresh
+        this.mFresh = (this.mMiddle.get() & ScTripleBuffer.FRESH_FLAG) != 0;
+        if (this.mFresh) {
+            this.mReadIndex = this.mMiddle
+                    .getAndSet(this.mReadIndex) & ScTripleBuffer.INDEX_MASK;
+            this.mHasFrame = true;
+        }
+
+        // Return
+        return this.mHasFrame ? this.mBuffers[this.mReadIndex] : null;
+    }
+
+    /**
+     * Check if the last acquired frame was never acquired before.
+     * Must be called only from the consumer thread.
+     *
+     * @return true if fresh
+     */
+    boolean isFresh() {
+        return this.mFresh;
+    }
+
+}
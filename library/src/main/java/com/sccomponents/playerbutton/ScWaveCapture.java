@@ -0,0 +1,297 @@
+package com.sccomponents.playerbutton;
+
+import android.media.audiofx.Visualizer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.view.View;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Capture the wave form or the FFT of an audio session.
+ * The visualizer is created, fed and released on a shared background looper so no
+ * capture work is done on the main thread. Every capture is copied inside a triple
+ * buffer and the view invalidation requests are collapsed into one while a frame is
+ * still pending.
+ * The frames can be also fed directly by an engine that own the PCM, in this case the
+ * visualizer is never created.
+ * Since the visualizers are a scarce system resource only a few can be opened at the
+ * same time, when the budget is exceeded the least recently opened will be evicted and
+ * its owner notified so can degrade to a simpler drawing.
+ */
+
+final class ScWaveCapture implements Visualizer.OnDataCaptureListener {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int MAX_VISUALIZERS = 2;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private static HandlerThread mThread = null;
+    private static Handler mHandler = null;
+    private static Handler mMainHandler = null;
+    private static final ArrayDeque<ScWaveCapture> mOpened =
+            new ArrayDeque<>(); // Capture thread only
+
+    private final View mView;
+    private final boolean mFft;
+    private final ScTripleBuffer mBuffer;
+    private final AtomicBoolean mInvalidatePending;
+
+    private Visualizer mVisualizer = null; // Capture thread only
+    private volatile boolean mReleased = false;
+    private boolean mStarted = false;
+    private OnEvictedListener mEvictedListener = null;
+
+
+    // ***************************************************************************************
+    // Constructors
+
+    ScWaveCapture(View view, int captureSize, boolean fft) {
+        this.mView = view;
+        this.mFft = fft;
+        this.mBuffer = new ScTripleBuffer(captureSize);
+        this.mInvalidatePending = new AtomicBoolean(false);
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Get the shared capture handler.
+     * The thread will be started on the first use.
+     *
+     * @return the handler
+     */
+    private static synchronized Handler getHandler() {
+        if (ScWaveCapture.mHandler == null) {
+            ScWaveCapture.mThread = new HandlerThread(
+                    "ScWaveCapture", Process.THREAD_PRIORITY_DISPLAY);
+            ScWaveCapture.mThread.start();
+            ScPlayerMetrics.onWorkerStarted();
+            ScWaveCapture.mHandler = new Handler(ScWaveCapture.mThread.getLooper());
+            ScWaveCapture.mMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return ScWaveCapture.mHandler;
+    }
+
+    /**
+     * Create and enable the visualizer.
+     * Must be called on the capture thread so the callbacks will be delivered on it.
+     *
+     * @param audioSessionId the audio session
+     * @param rate           the capture rate in milli Hertz
+     */
+    private void open(int audioSessionId, int rate) {
+        // Check if already released
+        if (this.mReleased)
+            return;
+
+        try {
+            // Settings
+            this.mVisualizer = new Visualizer(audioSessionId);
+            this.mVisualizer.setCaptureSize(this.mBuffer.getSize());
+            this.mVisualizer.setDataCaptureListener(this, rate, !this.mFft, this.mFft);
+            this.mVisualizer.setEnabled(true);
+
+        } catch (Exception ex) {
+            // Print the error on the stack and release
+            ex.printStackTrace();
+            this.close();
+            this.evict();
+            return;
+        }
+
+        // Keep the budget evicting the least recently opened
+        ScWaveCapture.mOpened.offer(this);
+        while (ScWaveCapture.mOpened.size() > ScWaveCapture.MAX_VISUALIZERS) {
+            ScWaveCapture eldest = ScWaveCapture.mOpened.peek();
+            eldest.close();
+            eldest.evict();
+        }
+    }
+
+    /**
+     * Stop to capture and notify the owner on the main thread.
+     * Must be called on the capture thread.
+     */
+    private void evict() {
+        this.mReleased = true;
+        ScWaveCapture.mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mEvictedListener != null)
+                    mEvictedListener.onCaptureEvicted(ScWaveCapture.this);
+            }
+        });
+    }
+
+    /**
+     * Disable and release the visualizer.
+     * Must be called on the capture thread.
+     */
+    private void close() {
+        ScWaveCapture.mOpened.remove(this);
+        if (this.mVisualizer != null) {
+            this.mVisualizer.setEnabled(false);
+            this.mVisualizer.release();
+            this.mVisualizer = null;
+        }
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Start to capture
+     *
+     * @param audioSessionId the audio session
+     * @param rate           the capture rate in milli Hertz
+     */
+    void start(final int audioSessionId, final int rate) {
+        this.mStarted = true;
+        ScWaveCapture.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                open(audioSessionId, rate);
+            }
+        });
+    }
+
+    /**
+     * Get the capture size
+     *
+     * @return the size in bytes
+     */
+    int getCaptureSize() {
+        return this.mBuffer.getSize();
+    }
+
+    /**
+     * Check if capturing the FFT
+     *
+     * @return true if FFT
+     */
+    boolean isFft() {
+        return this.mFft;
+    }
+
+    /**
+     * Feed a wave form frame computed by the caller.
+     * Can be called from any thread.
+     *
+     * @param bytes the unsigned 8 bit frame of capture size
+     * @return false if the capture was released
+     */
+    boolean feed(byte[] bytes) {
+        if (this.mReleased)
+            return false;
+
+        this.publish(bytes);
+        return true;
+    }
+
+    /**
+     * Stop to capture and release the visualizer
+     */
+    void release() {
+        this.mReleased = true;
+        this.mEvictedListener = null;
+
+        // Check if the visualizer was ever requested
+        if (!this.mStarted)
+            return;
+
+        ScWaveCapture.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Get the latest captured frame.
+     * Must be called on the main thread while drawing.
+     *
+     * @return the frame or null if nothing was captured yet
+     */
+    byte[] acquireFrame() {
+        this.mInvalidatePending.set(false);
+        byte[] frame = this.mBuffer.acquire();
+        if (this.mBuffer.isFresh())
+            ScPlayerMetrics.onFrameDrawn();
+        return frame;
+    }
+
+
+    // ***************************************************************************************
+    // Visualizer listener
+
+    /**
+     * Hand over the captured frame to the drawing
+     *
+     * @param bytes the frame
+     */
+    private void publish(byte[] bytes) {
+        // Check if still capturing
+        if (this.mReleased)
+            return;
+
+        // Copy the frame and invalidate only if no other frame is pending
+        this.mBuffer.publish(bytes);
+        ScPlayerMetrics.onFrameCaptured();
+        if (this.mInvalidatePending.compareAndSet(false, true))
+            this.mView.postInvalidate();
+    }
+
+    @Override
+    public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
+        this.publish(bytes);
+    }
+
+    @Override
+    public void onFftDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
+        this.publish(bytes);
+    }
+
+
+    // *******************************************************************************************
+    // Public listener and interface
+
+    /**
+     * Called on the main thread when the visualizer cannot be opened or was evicted to
+     * keep the budget
+     */
+    interface OnEvictedListener {
+
+        /**
+         * When the capture was stopped
+         *
+         * @param capture the capture
+         */
+        void onCaptureEvicted(ScWaveCapture capture);
+
+    }
+
+    /**
+     * Set the evicted listener.
+     * Must be called before start.
+     *
+     * @param listener the listener
+     */
+    void setOnEvictedListener(OnEvictedListener listener) {
+        this.mEvictedListener = listener;
+    }
+
+}
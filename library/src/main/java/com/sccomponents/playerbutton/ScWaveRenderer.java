@@ -0,0 +1,192 @@
+package com.sccomponents.playerbutton;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.sccomponents.playerbutton.core.ScWaveReducer;
+
+
+/**
+ * Draw the wave form reducing the captured data to one min/max pair for each
+ * pixel column, or the whole media envelope as bars.
+ * The points are computed by the core reducer inside a preallocated buffer and drawn
+ * with a single Canvas.drawLines (or drawPoints) call so the render cost scales with
+ * the view width and not with the capture size.
+ * The renderer not keep any drawing state so one instance can be shared by all the
+ * players drawn on the main thread.
+ */
+
+final class ScWaveRenderer {
+
+    // ***************************************************************************************
+    // Constants
+
+    static final int STYLE_PATH = ScWaveReducer.STYLE_PATH;
+    static final int STYLE_BARS = ScWaveReducer.STYLE_BARS;
+    static final int STYLE_DOTS = ScWaveReducer.STYLE_DOTS;
+    static final int STYLE_SPECTRUM = ScWaveReducer.STYLE_SPECTRUM;
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    private float[] mPoints = new float[0];
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Ensure the points buffer capacity.
+     * The buffer will be reallocated only when the view become wider.
+     *
+     * @param size the needed size
+     */
+    private void ensureCapacity(int size) {
+        if (this.mPoints.length < size)
+            this.mPoints = new float[size];
+    }
+
+    /**
+     * Find the column distance by the drawing style
+     *
+     * @param style the drawing style
+     * @param paint the painter
+     * @return the step in pixel
+     */
+    private static int getColumnStep(int style, Paint paint) {
+        // Path is continuous so can use all the pixel columns
+        if (style == ScWaveRenderer.STYLE_PATH)
+            return 1;
+
+        // Bars and dots must not overlap each other
+        return Math.max(1, Math.round(paint.getStrokeWidth() * 2.0f));
+    }
+
+
+    // ***************************************************************************************
+    // Public methods
+
+    /**
+     * Draw the data inside the area.
+     * If the data is null will be draw an horizontal line.
+     *
+     * @param canvas   the canvas
+     * @param area     the bounds
+     * @param data     the unsigned 8 bit samples or the FFT data if spectrum
+     * @param style    the drawing style
+     * @param analyzer the spectrum state of the player, used only by the spectrum style
+     * @param paint    the painter
+     */
+    void draw(Canvas canvas, Rect area, byte[] data, int style, ScSpectrumAnalyzer analyzer,
+              Paint paint) {
+        // Spectrum
+        if (style == ScWaveRenderer.STYLE_SPECTRUM) {
+            this.drawSpectrum(canvas, area, data, analyzer, paint);
+            return;
+        }
+
+        // Check for empty values
+        if (data == null || data.length == 0 || area.width() <= 0) {
+            // Create an horizontal line
+            canvas.drawLine(area.left, area.centerY(), area.right, area.centerY(), paint);
+            return;
+        }
+
+        // Reduce to one min/max pair for each column
+        int step = ScWaveRenderer.getColumnStep(style, paint);
+        int columns = Math.max(1, area.width() / step);
+        this.ensureCapacity(ScWaveReducer.getWaveCapacity(columns));
+        int count = ScWaveReducer.reduceWave(
+                data, columns, step, style,
+                area.left, area.top, area.height(), this.mPoints);
+
+        // Draw
+        if (style == ScWaveRenderer.STYLE_DOTS)
+            canvas.drawPoints(this.mPoints, 0, count, paint);
+        else
+            canvas.drawLines(this.mPoints, 0, count, paint);
+    }
+
+
+    /**
+     * Draw the FFT data as spectrum bars growing from the bottom of the area.
+     *
+     * @param canvas   the canvas
+     * @param area     the bounds
+     * @param fft      the FFT data
+     * @param analyzer the spectrum state
+     * @param paint    the painter
+     */
+    private void drawSpectrum(Canvas canvas, Rect area, byte[] fft,
+                              ScSpectrumAnalyzer analyzer, Paint paint) {
+        // Holders
+        int step = ScWaveRenderer.getColumnStep(ScWaveRenderer.STYLE_SPECTRUM, paint);
+        int bars = Math.max(1, area.width() / step);
+
+        // Find the levels
+        float[] levels = analyzer.update(fft, bars);
+        bars = Math.min(bars, levels.length);
+
+        // Every bar is a single segment
+        this.ensureCapacity(bars * 4);
+        int count = 0;
+
+        for (int bar = 0; bar < bars; bar++) {
+            // Calculate the position, keep at least a dot
+            float x = area.left + bar * step + step / 2.0f;
+            float height = Math.max(0.5f, levels[bar] * area.height());
+
+            this.mPoints[count++] = x;
+            this.mPoints[count++] = area.bottom;
+            this.mPoints[count++] = x;
+            this.mPoints[count++] = area.bottom - height;
+        }
+
+        // Draw
+        canvas.drawLines(this.mPoints, 0, count, paint);
+    }
+
+    /**
+     * Draw the media envelope inside the area as vertical bars.
+     * The bars before the progress will be draw with the painter color and the other
+     * with a faded color. If the progress is negative all the bars will be draw as played.
+     *
+     * @param canvas   the canvas
+     * @param area     the bounds
+     * @param envelope the unsigned 8 bit peaks
+     * @param progress the played fraction (0..1)
+     * @param paint    the painter
+     */
+    void drawEnvelope(Canvas canvas, Rect area, byte[] envelope, float progress, Paint paint) {
+        // Holders
+        int step = Math.max(1, Math.round(paint.getStrokeWidth() * 2.0f));
+        int columns = Math.max(1, area.width() / step);
+        float half = area.height() / 2.0f;
+        float centerY = area.exactCenterY();
+
+        // Every column is a single segment
+        this.ensureCapacity(columns * 4);
+        ScWaveReducer.reduceEnvelope(
+                envelope, columns, step, area.left, centerY, half, this.mPoints);
+
+        // Find the split
+        int played = progress < 0 ? columns : Math.round(columns * Math.min(progress, 1.0f));
+
+        // Draw the played part
+        int color = paint.getColor();
+        if (played > 0)
+            canvas.drawLines(this.mPoints, 0, played * 4, paint);
+
+        // Draw the not played part
+        if (played < columns) {
+            paint.setColor(Color.argb(
+                    Color.alpha(color) / 3, Color.red(color), Color.green(color), Color.blue(color)));
+            canvas.drawLines(this.mPoints, played * 4, (columns - played) * 4, paint);
+            paint.setColor(color);
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+package com.sccomponents.playerbutton;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Check the disk cache and the data source of the remote media against a local server.
+ * The server serve a generated media and can ignore the ranges, cut the responses or
+ * change the media between the requests.
+ */
+
+public class ScHttpCacheTest {
+
+    // ***************************************************************************************
+    // Constants
+
+    private static final int BLOCK = ScHttpCache.BLOCK_SIZE;
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+    private static final int WAIT = 5000; // Milliseconds
+
+
+    // ***************************************************************************************
+    // Privates variable
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer = null;
+    private String mUrl = null;
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    private volatile byte[] mMedia = null;
+    private volatile boolean mIgnoreRanges = false;
+    private volatile int mCut = -1;
+
+
+    // ***************************************************************************************
+    // Classes
+
+    /**
+     * Serve the media honouring the single range requests
+     */
+    private final class MediaHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequests.incrementAndGet();
+            byte[] media = mMedia;
+
+            // Find the range
+            int start = 0;
+            int end = media.length - 1;
+            int code = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && !mIgnoreRanges) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+                code = 206;
+                exchange.getResponseHeaders().add(
+                        "Content-Range", "bytes " + start + "-" + end + "/" + media.length);
+            }
+
+            // A cut response is chunked so the stream just end
+            int count = end - start + 1;
+            int sent = mCut >= 0 ? Math.min(count, mCut) : count;
+            exchange.sendResponseHeaders(code, sent < count ? 0 : count);
+            OutputStream output = exchange.getResponseBody();
+            output.write(media, start, sent);
+            output.close();
+        }
+
+    }
+
+
+    // ***************************************************************************************
+    // Privates methods
+
+    /**
+     * Create a media with a recognizable content
+     *
+     * @param size the size in bytes
+     * @param seed the content seed
+     * @return the media
+     */
+    private static byte[] createMedia(int size, int seed) {
+        byte[] media = new byte[size];
+        for (int index = 0; index < size; index++)
+            media[index] = (byte) (index * 31 + index / 251 + seed);
+        return media;
+    }
+
+    /**
+     * Read the cached bytes of the entry
+     *
+     * @param entry    the entry
+     * @param position the position in bytes
+     * @param size     the bytes to read
+     * @return the bytes
+     * @throws IOException if the file cannot be read
+     */
+    private static byte[] read(ScHttpCache.Entry entry, long position, int size)
+            throws IOException {
+        byte[] buffer = new byte[size];
+        int count = 0;
+        while (count < size) {
+            int read = entry.read(position + count, buffer, count, size - count);
+            assertTrue("Not cached at " + (position + count), read > 0);
+            count += read;
+        }
+        return buffer;
+    }
+
+    /**
+     * Get a part of the served media
+     *
+     * @param position the position in bytes
+     * @param size     the bytes
+     * @return the bytes
+     */
+    private byte[] slice(int position, int size) {
+        return Arrays.copyOfRange(this.mMedia, position, position + size);
+    }
+
+    /**
+     * Set all the cached files as used long ago
+     */
+    private void ageFiles() {
+        File[] files = new File(this.mFolder.getRoot(), "cache").listFiles();
+        if (files != null)
+            for (File file : files)
+                assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+    }
+
+    /**
+     * Create a cache inside the temporary folder
+     *
+     * @param maxSize the budget in bytes
+     * @return the cache
+     */
+    private ScHttpCache createCache(long maxSize) {
+        return new ScHttpCache(new File(this.mFolder.getRoot(), "cache"), maxSize);
+    }
+
+
+    // ***************************************************************************************
+    // Tests
+
+    @Before
+    public void setUp() throws IOException {
+        this.mMedia = ScHttpCacheTest.createMedia(10 * BLOCK + 1000, 0);
+        this.mServer = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.mServer.createContext("/", new MediaHandler());
+        this.mServer.start();
+        this.mUrl = "http://127.0.0.1:" + this.mServer.getAddress().getPort() + "/media.mp3";
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.stop(0);
+    }
+
+    @Test
+    public void fetchPartialContent() throws IOException {
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+
+        // The length is taken from the Content-Range
+        entry.fetch(BLOCK + 10);
+        assertEquals(this.mMedia.length, entry.getLength());
+        assertFalse(entry.isCached(0));
+        assertTrue(entry.isCached(BLOCK));
+        assertArrayEquals(this.slice(BLOCK, 4 * BLOCK), read(entry, BLOCK, 4 * BLOCK));
+        cache.close(entry);
+    }
+
+    @Test
+    public void fetchIgnoredRanges() throws IOException {
+        this.mIgnoreRanges = true;
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+
+        // The whole media is served, the bytes before the block are skipped
+        entry.fetch(5 * BLOCK);
+        assertEquals(this.mMedia.length, entry.getLength());
+        assertFalse(entry.isCached(4 * BLOCK));
+        assertArrayEquals(this.slice(5 * BLOCK, 2 * BLOCK), read(entry, 5 * BLOCK, 2 * BLOCK));
+        cache.close(entry);
+    }
+
+    @Test
+    public void fetchShortFinalBlock() throws IOException {
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+
+        // The last block is shorter than the others
+        entry.fetch(9 * BLOCK);
+        assertTrue(entry.isCached(10 * BLOCK));
+        assertArrayEquals(this.slice(10 * BLOCK, 1000), read(entry, 10 * BLOCK, 1000));
+        assertEquals(-1, entry.read(this.mMedia.length, new byte[10], 0, 10));
+        cache.close(entry);
+    }
+
+    @Test
+    public void fetchChangedLength() throws IOException {
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+        entry.fetch(0);
+        assertTrue(entry.isCached(0));
+
+        // The media is changed on the server so the old blocks are dropped, the range was
+        // asked by the old length so its last block is short and not written
+        this.mMedia = ScHttpCacheTest.createMedia(12 * BLOCK, 7);
+        entry.fetch(8 * BLOCK);
+        assertEquals(this.mMedia.length, entry.getLength());
+        assertFalse(entry.isCached(0));
+        assertFalse(entry.isCached(10 * BLOCK));
+        assertArrayEquals(this.slice(8 * BLOCK, 2 * BLOCK), read(entry, 8 * BLOCK, 2 * BLOCK));
+        cache.close(entry);
+    }
+
+    @Test
+    public void mapSurviveReopen() throws IOException {
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+        entry.fetch(0);
+        cache.close(entry);
+
+        // A new cache on the same directory read the blocks without the network
+        int requests = this.mRequests.get();
+        ScHttpCache reopened = this.createCache(MAX_SIZE);
+        entry = reopened.open(this.mUrl);
+        assertEquals(this.mMedia.length, entry.getLength());
+        assertArrayEquals(this.slice(0, 4 * BLOCK), read(entry, 0, 4 * BLOCK));
+        assertFalse(entry.isCached(4 * BLOCK));
+        assertEquals(requests, this.mRequests.get());
+        reopened.close(entry);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        ScHttpCache cache = this.createCache(6 * BLOCK);
+        String other = this.mUrl + "?other";
+
+        // Two media of four blocks, the first used long ago
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+        entry.fetch(0);
+        cache.close(entry);
+        this.ageFiles();
+
+        entry = cache.open(other);
+        entry.fetch(0);
+        cache.close(entry);
+
+        // Opening a new media exceed the budget
+        cache.close(cache.open(this.mUrl + "?new"));
+
+        entry = cache.open(this.mUrl);
+        assertFalse(entry.isCached(0));
+        cache.close(entry);
+
+        entry = cache.open(other);
+        assertTrue(entry.isCached(0));
+        cache.close(entry);
+    }
+
+    @Test
+    public void fillInsideReadAhead() throws IOException {
+        this.mMedia = ScHttpCacheTest.createMedia(ScHttpCache.READ_AHEAD + 8 * BLOCK, 0);
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpCache.Entry entry = cache.open(this.mUrl);
+        entry.fetch(0);
+
+        // The missing blocks are searched only inside the window
+        long position;
+        while ((position = entry.findMissing()) >= 0)
+            entry.fetch(position);
+        assertTrue(entry.isCached(ScHttpCache.READ_AHEAD - 1));
+        assertFalse(entry.isCached(ScHttpCache.READ_AHEAD));
+
+        // Moving the cursor move the window
+        entry.setCursor(ScHttpCache.READ_AHEAD);
+        assertEquals(ScHttpCache.READ_AHEAD, entry.findMissing());
+        cache.close(entry);
+    }
+
+    @Test
+    public void fillStopOverBudget() throws Exception {
+        this.mMedia = ScHttpCacheTest.createMedia(ScHttpCache.READ_AHEAD, 0);
+        ScHttpCache cache = this.createCache(6 * BLOCK);
+        ScHttpDataSource source = new ScHttpDataSource(cache, this.mUrl, true, null);
+
+        // The first read fetch four blocks and start the filler, that can fetch other
+        // four blocks before exceeding the budget
+        assertEquals(100, source.readAt(0, new byte[100], 0, 100));
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (this.mRequests.get() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Thread.sleep(500);
+
+        assertEquals(2, this.mRequests.get());
+        source.close();
+    }
+
+    @Test
+    public void readDataSource() throws IOException {
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpDataSource source = new ScHttpDataSource(cache, this.mUrl, false, null);
+
+        byte[] buffer = new byte[1000];
+        assertEquals(this.mMedia.length, source.getSize());
+        assertEquals(1000, source.readAt(10 * BLOCK, buffer, 0, 1000));
+        assertArrayEquals(this.slice(10 * BLOCK, 1000), buffer);
+        assertEquals(-1, source.readAt(this.mMedia.length, buffer, 0, 1000));
+        source.close();
+    }
+
+    @Test
+    public void readCutResponse() throws IOException {
+        // The server close the response in the middle of the first block
+        this.mCut = BLOCK / 2;
+        ScHttpCache cache = this.createCache(MAX_SIZE);
+        ScHttpDataSource source = new ScHttpDataSource(cache, this.mUrl, false, null);
+
+        try {
+            source.readAt(0, new byte[100], 0, 100);
+            fail("The read must fail when nothing is fetched");
+        } catch (IOException ex) {
+            // Expected
+        }
+        source.close();
+    }
+
+}